@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Locate random points in the sectors: one by one, and in batch from CSV 
+ * using all processors.
+ * Scores are points per second.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+@State(Scope.Benchmark)
+public class LocatorBenchmark extends SyntheticShapefile {
+	private final static int POINTS = 1_000_000;
+	
+	private final double[] pts = new double[POINTS * 2];
+	private String csv;
+	private SectorLocator locator;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		generate();
+		locator = new SectorLocator(new MappedShapefile(shp, Charsets.UTF_8));
+		
+		ShapefileGenerator gen = new ShapefileGenerator(features, vertices);
+		Random rnd = new Random(42);
+		StringBuilder sb = new StringBuilder(POINTS * 32);
+		for (int i = 0; i < POINTS; i++) {
+			double[] p = gen.point(rnd);
+			pts[i * 2] = p[0];
+			pts[i * 2 + 1] = p[1];
+			sb.append(i).append(',').append(p[0]).append(',').append(p[1]).append('\n');
+		}
+		csv = sb.toString();
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() {
+		cleanup();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void locate(Blackhole bh) {
+		for (int i = 0; i < POINTS; i++) {
+			bh.consume(locator.locate(pts[i * 2], pts[i * 2 + 1]));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public long batch() throws IOException {
+		return locator.locate(new StringReader(csv), CharStreams.nullWriter(), 
+						Runtime.getRuntime().availableProcessors(), null);
+	}
+}
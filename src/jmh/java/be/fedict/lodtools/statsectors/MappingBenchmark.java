@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.store.ContentFeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Map the attributes of features to strings and IRIs, 
+ * without reading the shapefile.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+@State(Scope.Benchmark)
+public class MappingBenchmark extends SyntheticShapefile {
+	private final List<SimpleFeature> features = new ArrayList<>();
+	private Projection cols;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		generate();
+		ShapefileDataStore store = new ShapefileDataStore(shp.toURI().toURL());
+		store.setCharset(Charsets.UTF_8);
+		
+		ContentFeatureCollection coll = store.getFeatureSource().getFeatures();
+		cols = Main.COLUMNS.bind(coll.getSchema());
+		SimpleFeatureIterator iter = coll.features();
+		try {
+			while (iter.hasNext()) {
+				features.add(iter.next());
+			}
+		} finally {
+			iter.close();
+			store.dispose();
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() {
+		cleanup();
+	}
+	
+	@Benchmark
+	public void mapping(Blackhole bh) {
+		for (SimpleFeature feature: features) {
+			bh.consume(Main.makeURL(Main.PREF_NIS, 
+							Main.makeStr(feature, cols, Main.COL_SECTOR)));
+			bh.consume(Main.NUTS_IRIS.get(Main.makeStr(feature, cols, Main.COL_NUTS3)));
+			bh.consume(Main.NIS_IRIS.get(Main.makeStr(feature, cols, Main.COL_NIS)));
+			bh.consume(Main.makeStr(feature, cols, Main.COL_NAME_NL));
+			bh.consume(Main.makeStr(feature, cols, Main.COL_NAME_FR));
+		}
+	}
+}
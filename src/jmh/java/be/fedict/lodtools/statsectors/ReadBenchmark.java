@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Read all features, with GeoTools and with the memory-mapped reader.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+@State(Scope.Benchmark)
+public class ReadBenchmark extends SyntheticShapefile {
+	private ShapefileDataStore store;
+	private MappedShapefile mapped;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		generate();
+		store = new ShapefileDataStore(shp.toURI().toURL());
+		store.setCharset(Charsets.UTF_8);
+		mapped = new MappedShapefile(shp, Charsets.UTF_8);
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() {
+		store.dispose();
+		cleanup();
+	}
+	
+	@Benchmark
+	public void dataStore(Blackhole bh) throws IOException {
+		SimpleFeatureIterator iter = store.getFeatureSource().getFeatures().features();
+		try {
+			while (iter.hasNext()) {
+				SimpleFeature feature = iter.next();
+				bh.consume(feature.getDefaultGeometry());
+				bh.consume(feature.getAttribute(Main.SECTOR));
+			}
+		} finally {
+			iter.close();
+		}
+	}
+	
+	@Benchmark
+	public void mapped(Blackhole bh) {
+		MappedShapefile.Cursor cursor = mapped.cursor();
+		int col = mapped.column(Main.SECTOR);
+		while (cursor.next()) {
+			bh.consume(cursor.x(0));
+			bh.consume(cursor.text(col));
+		}
+	}
+}
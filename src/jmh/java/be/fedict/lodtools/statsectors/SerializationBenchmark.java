@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Serialize the triples of all sectors with Rio.write, 
+ * and with the streaming WKT writer used by Main.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+@State(Scope.Benchmark)
+public class SerializationBenchmark extends SyntheticShapefile {
+	@Param({ "ntriples", "turtle", "binary" })
+	public String format;
+	
+	private final List<Statement> statements = new ArrayList<>();
+	private final List<String[]> values = new ArrayList<>();
+	private final List<Geometry> geoms = new ArrayList<>();
+	private final WktEncoder wkt = new WktEncoder(-1);
+	private RDFFormat rdfFormat;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		generate();
+		MappedShapefile mapped = new MappedShapefile(shp, Charsets.UTF_8);
+		Projection cols = Main.COLUMNS.bind(mapped);
+		GeometryFactory factory = new GeometryFactory();
+		StatementCollector collector = new StatementCollector(statements);
+		
+		MappedShapefile.Cursor cursor = mapped.cursor();
+		while (cursor.next()) {
+			String[] v = new String[cols.size()];
+			for (int i = 0; i < v.length; i++) {
+				v[i] = cursor.text(cols.index(i)).toString();
+			}
+			Geometry g = cursor.geometry(factory);
+			values.add(v);
+			geoms.add(g);
+			Main.toRDF(collector, v[Main.COL_SECTOR], v[Main.COL_NUTS3], 
+				v[Main.COL_NIS], v[Main.COL_NAME_NL], v[Main.COL_NAME_FR], wkt.encode(g));
+		}
+		switch (format) {
+			case "turtle": rdfFormat = RDFFormat.TURTLE; break;
+			case "binary": rdfFormat = RDFFormat.BINARY; break;
+			default: rdfFormat = RDFFormat.NTRIPLES;
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() {
+		cleanup();
+	}
+	
+	@Benchmark
+	public void rio() {
+		Rio.write(statements, ByteStreams.nullOutputStream(), rdfFormat);
+	}
+	
+	@Benchmark
+	public void wktWriter() throws IOException {
+		WktNTriplesWriter writer = new WktNTriplesWriter(new BufferedWriter(
+			new OutputStreamWriter(ByteStreams.nullOutputStream(), Charsets.UTF_8)));
+		writer.startRDF();
+		for (int i = 0; i < values.size(); i++) {
+			String[] v = values.get(i);
+			Main.toRDF(writer, v[Main.COL_SECTOR], v[Main.COL_NUTS3], v[Main.COL_NIS],
+					v[Main.COL_NAME_NL], v[Main.COL_NAME_FR], wkt.encode(geoms.get(i)));
+		}
+		writer.endRDF();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Charsets;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Produce WKT for all sectors: JTS toText() as baseline, the encoder
+ * on JTS geometries and the encoder directly on the mapped shapefile.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+@State(Scope.Benchmark)
+public class WktBenchmark extends SyntheticShapefile {
+	private final List<Geometry> geoms = new ArrayList<>();
+	private final WktEncoder wkt = new WktEncoder(-1);
+	private MappedShapefile mapped;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		generate();
+		mapped = new MappedShapefile(shp, Charsets.UTF_8);
+		GeometryFactory factory = new GeometryFactory();
+		MappedShapefile.Cursor cursor = mapped.cursor();
+		while (cursor.next()) {
+			geoms.add(cursor.geometry(factory));
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void teardown() {
+		cleanup();
+	}
+	
+	@Benchmark
+	public void jtsText(Blackhole bh) {
+		for (Geometry g: geoms) {
+			bh.consume(g.toText());
+		}
+	}
+	
+	@Benchmark
+	public void encoder(Blackhole bh) {
+		for (Geometry g: geoms) {
+			bh.consume(wkt.encode(g).length());
+		}
+	}
+	
+	@Benchmark
+	public void encoderMapped(Blackhole bh) {
+		MappedShapefile.Cursor cursor = mapped.cursor();
+		while (cursor.next()) {
+			bh.consume(wkt.encode(cursor).length());
+		}
+	}
+}
@@ -0,0 +1,549 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.algorithm.LineIntersector;
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.algorithm.locate.PointOnGeometryLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.geom.prep.PreparedPolygon;
+import com.vividsolutions.jts.geom.util.LinearComponentExtracter;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.noding.SegmentIntersectionDetector;
+import com.vividsolutions.jts.noding.SegmentString;
+import com.vividsolutions.jts.noding.SegmentStringUtil;
+import com.vividsolutions.jts.operation.overlay.snap.SnapIfNeededOverlayOp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Find neighbouring sectors, i.e. sectors sharing a border or a corner.
+ *
+ * The sectors are stored in an STR-tree, each sector is prepared and
+ * tested against the candidates with a larger record number only, 
+ * so every pair is tested once. 
+ * 
+ * Most intersecting pairs only share a border: no vertex of one sector lies
+ * inside the other and the borders only meet in shared vertices and 
+ * identical segments, which is checked with the indexes of the prepared 
+ * geometries instead of a full relate(). 
+ * Pairs where a vertex lies on a segment of the other border, e.g. at a
+ * T-junction or along partly overlapping segments, are not decided by 
+ * these tests, and are measured like overlapping pairs.
+ * Each direction is checked in a separate pass, so every sector is only 
+ * prepared once per pass.
+ * For the other pairs, the area of the intersection is computed:
+ * slivers smaller than a fraction of the smallest sector are still
+ * neighbours, larger overlaps are dropped and can be written to a report.
+ * The sectors are processed in parallel.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Adjacency {
+	public final static double SLIVER = 0.001;
+	
+	private final GeometryFactory factory = new GeometryFactory();
+	private final STRtree tree = new STRtree();
+	
+	private final List<Geometry> geoms = new ArrayList<>();
+	private final List<String> sectors = new ArrayList<>();
+	private final List<Integer> records = new ArrayList<>();
+	private final List<Overlap> overlaps = new ArrayList<>();
+	private final double tolerance;
+	private int[][] neighbours;
+	private int slivers = 0;
+	
+	/**
+	 * Pair of sectors with overlapping interiors
+	 */
+	private static class Overlap {
+		private final int i;
+		private final int j;
+		private final double area;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param i index of the first sector
+		 * @param j index of the second sector
+		 * @param area area of the intersection
+		 */
+		private Overlap(int i, int j, double area) {
+			this.i = i;
+			this.j = j;
+			this.area = area;
+		}
+	}
+	
+	/**
+	 * Locate a point, only when it lies within the envelope
+	 * 
+	 * @param locator point locator of the other geometry
+	 * @param env envelope of the other geometry
+	 * @param c point
+	 * @return location
+	 */
+	private static int locate(PointOnGeometryLocator locator, Envelope env, 
+																Coordinate c) {
+		return env.contains(c) ? locator.locate(c) : Location.EXTERIOR;
+	}
+	
+	/**
+	 * Check if a vertex of a geometry lies inside the other geometry,
+	 * or if none lies outside (e.g. duplicate sectors).
+	 * A segment between two vertices on the border of the other geometry 
+	 * may still run through its interior, so its midpoint is located too.
+	 * Only the points within the envelope of the other geometry are located.
+	 * 
+	 * @param locator point locator of the other geometry
+	 * @param env envelope of the other geometry
+	 * @param geom geometry
+	 * @return true if the interiors may overlap
+	 */
+	private static boolean inside(PointOnGeometryLocator locator, Envelope env, 
+																Geometry geom) {
+		boolean outside = false;
+		Coordinate mid = new Coordinate();
+		for (Object o: LinearComponentExtracter.getLines(geom)) {
+			Coordinate[] coords = ((LineString) o).getCoordinates();
+			int prev = Location.EXTERIOR;
+			for (int i = 0; i < coords.length; i++) {
+				int loc = locate(locator, env, coords[i]);
+				if (loc == Location.INTERIOR) {
+					return true;
+				}
+				outside |= (loc == Location.EXTERIOR);
+				if (i > 0 && loc == Location.BOUNDARY && prev == Location.BOUNDARY) {
+					mid.x = (coords[i - 1].x + coords[i].x) / 2;
+					mid.y = (coords[i - 1].y + coords[i].y) / 2;
+					if (locate(locator, env, mid) == Location.INTERIOR) {
+						return true;
+					}
+				}
+				prev = loc;
+			}
+		}
+		return !outside;
+	}
+	
+	/**
+	 * Find intersections of two borders other than shared vertices and
+	 * identical segments, i.e. proper crossings, a vertex on a segment
+	 * of the other border, and partly overlapping collinear segments.
+	 * Extends the detector, which the intersection finder of a prepared 
+	 * geometry expects.
+	 */
+	private static class BorderIntersector extends SegmentIntersectionDetector {
+		private final LineIntersector li;
+		private boolean found = false;
+		
+		/**
+		 * Constructor, the detector of JTS 1.13 needs a line intersector
+		 * 
+		 * @param li line intersector
+		 */
+		private BorderIntersector(LineIntersector li) {
+			super(li);
+			this.li = li;
+		}
+		
+		/**
+		 * Constructor
+		 */
+		public BorderIntersector() {
+			this(new RobustLineIntersector());
+		}
+		
+		/**
+		 * Check if a point is an end point of a segment
+		 * 
+		 * @param c point
+		 * @param ss segment string
+		 * @param i index of the segment
+		 * @return true if end point
+		 */
+		private static boolean isEnd(Coordinate c, SegmentString ss, int i) {
+			return c.equals2D(ss.getCoordinate(i)) || c.equals2D(ss.getCoordinate(i + 1));
+		}
+		
+		@Override
+		public void processIntersections(SegmentString e0, int i0, 
+												SegmentString e1, int i1) {
+			li.computeIntersection(e0.getCoordinate(i0), e0.getCoordinate(i0 + 1),
+								e1.getCoordinate(i1), e1.getCoordinate(i1 + 1));
+			if (!li.hasIntersection()) {
+				return;
+			}
+			if (li.isProper()) {
+				found = true;
+				return;
+			}
+			for (int k = 0; k < li.getIntersectionNum(); k++) {
+				Coordinate c = li.getIntersection(k);
+				if (!isEnd(c, e0, i0) || !isEnd(c, e1, i1)) {
+					found = true;
+					return;
+				}
+			}
+		}
+		
+		@Override
+		public boolean isDone() {
+			return found;
+		}
+	}
+	
+	/**
+	 * Check if the borders of two sectors cross each other, or meet in
+	 * a way the vertex tests cannot decide (a vertex on a segment of the 
+	 * other border, or partly overlapping collinear segments)
+	 * 
+	 * @param prepared first sector, prepared
+	 * @param geom second sector
+	 * @return true if the borders cross or meet outside shared vertices
+	 */
+	private static boolean crosses(PreparedPolygon prepared, Geometry geom) {
+		BorderIntersector crossing = new BorderIntersector();
+		prepared.getIntersectionFinder().intersects(
+						SegmentStringUtil.extractSegmentStrings(geom), crossing);
+		return crossing.isDone();
+	}
+	
+	/**
+	 * Get the area of the intersection of two sectors
+	 * 
+	 * @param g1 first sector
+	 * @param g2 second sector
+	 * @return area
+	 */
+	private static double overlap(Geometry g1, Geometry g2) {
+		try {
+			return SnapIfNeededOverlayOp.intersection(g1, g2).getArea();
+		} catch (TopologyException te) {
+			// invalid sectors, cannot be measured
+			return Double.POSITIVE_INFINITY;
+		}
+	}
+	
+	/**
+	 * Prepare a sector, not shared between threads: 
+	 * the lazy indexes are not thread-safe
+	 * 
+	 * @param i index of the sector
+	 * @return prepared geometry
+	 */
+	private PreparedPolygon prepare(int i) {
+		return new PreparedPolygon((Polygonal) geoms.get(i));
+	}
+	
+	/**
+	 * Find the intersecting sectors with a larger index, and check if a 
+	 * vertex of these sectors lies inside this sector or if the borders cross
+	 * 
+	 * @param i index of the sector
+	 * @param suspect set to true if the interiors of a pair may overlap
+	 * @return indexes of the intersecting sectors, sorted
+	 */
+	private int[] candidates(int i, boolean[][] suspect) {
+		Geometry geom = geoms.get(i);
+		Envelope env = geom.getEnvelopeInternal();
+		PreparedPolygon prepared = prepare(i);
+		
+		List<?> candidates = tree.query(env);
+		int[] res = new int[candidates.size()];
+		int n = 0;
+		for (Object o: candidates) {
+			int j = (Integer) o;
+			if (j > i && prepared.intersects(geoms.get(j))) {
+				res[n++] = j;
+			}
+		}
+		res = Arrays.copyOf(res, n);
+		Arrays.sort(res);
+		
+		boolean[] flags = new boolean[n];
+		for (int k = 0; k < n; k++) {
+			Geometry other = geoms.get(res[k]);
+			flags[k] = inside(prepared.getPointLocator(), env, other) 
+											|| crosses(prepared, other);
+		}
+		suspect[i] = flags;
+		return res;
+	}
+	
+	/**
+	 * Check if a vertex of this sector lies inside an intersecting sector
+	 * with a smaller index, the other direction is done by candidates()
+	 * 
+	 * @param i index of the sector
+	 * @param lower indexes of the intersecting sectors with a smaller index
+	 * @return indexes of the sectors that may overlap
+	 */
+	private int[] reverse(int i, int[] lower) {
+		Geometry geom = geoms.get(i);
+		Envelope env = geom.getEnvelopeInternal();
+		PreparedPolygon prepared = prepare(i);
+		
+		int[] res = new int[lower.length];
+		int n = 0;
+		for (int j: lower) {
+			if (inside(prepared.getPointLocator(), env, geoms.get(j))) {
+				res[n++] = j;
+			}
+		}
+		return Arrays.copyOf(res, n);
+	}
+	
+	/**
+	 * Keep the neighbours of a sector with a larger index, i.e. the pairs
+	 * that only share their border or overlap less than the tolerance
+	 * 
+	 * @param i index of the sector
+	 * @param candidates intersecting sectors with a larger index
+	 * @param suspect true if the interiors of the pair may overlap
+	 * @return indexes of the neighbours, sorted
+	 */
+	private int[] neighbours(int i, int[] candidates, boolean[] suspect) {
+		Geometry geom = geoms.get(i);
+		int[] res = new int[candidates.length];
+		int n = 0;
+		for (int k = 0; k < candidates.length; k++) {
+			int j = candidates[k];
+			if (!suspect[k]) {
+				res[n++] = j;
+				continue;
+			}
+			Geometry other = geoms.get(j);
+			double area = overlap(geom, other);
+			if (area <= tolerance * Math.min(geom.getArea(), other.getArea())) {
+				res[n++] = j;
+				if (area > 0) {
+					synchronized(this) {
+						slivers++;
+					}
+				}
+			} else {
+				synchronized(this) {
+					overlaps.add(new Overlap(i, j, area));
+				}
+			}
+		}
+		return Arrays.copyOf(res, n);
+	}
+	
+	/**
+	 * Get the pairs with a smaller index from the pairs with a larger index
+	 * 
+	 * @param upper sorted indexes larger than the index of the array
+	 * @return sorted indexes smaller than the index of the array
+	 */
+	private static int[][] transpose(int[][] upper) {
+		int n = upper.length;
+		int[] count = new int[n];
+		for (int[] js: upper) {
+			for (int j: js) {
+				count[j]++;
+			}
+		}
+		int[][] lower = new int[n][];
+		for (int i = 0; i < n; i++) {
+			lower[i] = new int[count[i]];
+			count[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j: upper[i]) {
+				lower[j][count[j]++] = i;
+			}
+		}
+		return lower;
+	}
+	
+	/**
+	 * Find all pairs of neighbours, in parallel
+	 * 
+	 * @param threads number of threads
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void compute(int threads) throws InterruptedException, ExecutionException {
+		int n = geoms.size();
+		int[][] upper = new int[n][];
+		boolean[][] suspect = new boolean[n][];
+		int[][] reversed = new int[n][];
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> 
+				upper[i] = candidates(i, suspect)
+			)).get();
+			
+			int[][] lower = transpose(upper);
+			pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> 
+				reversed[i] = reverse(i, lower[i])
+			)).get();
+			for (int i = 0; i < n; i++) {
+				for (int j: reversed[i]) {
+					suspect[j][Arrays.binarySearch(upper[j], i)] = true;
+				}
+			}
+			
+			pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> 
+				upper[i] = neighbours(i, upper[i], suspect[i])
+			)).get();
+		} finally {
+			pool.shutdown();
+		}
+		
+		// make symmetric, the smaller indexes come first so the result is sorted
+		int[][] lower = transpose(upper);
+		neighbours = new int[n][];
+		for (int i = 0; i < n; i++) {
+			neighbours[i] = Arrays.copyOf(lower[i], lower[i].length + upper[i].length);
+			System.arraycopy(upper[i], 0, neighbours[i], lower[i].length, upper[i].length);
+		}
+	}
+	
+	/**
+	 * Get the number of sectors
+	 * 
+	 * @return number of sectors
+	 */
+	public int size() {
+		return sectors.size();
+	}
+	
+	/**
+	 * Get the code of a sector
+	 * 
+	 * @param i index of the sector
+	 * @return sector code
+	 */
+	public String sector(int i) {
+		return sectors.get(i);
+	}
+	
+	/**
+	 * Get the record number of a sector in the shapefile
+	 * 
+	 * @param i index of the sector
+	 * @return record number, 0-based
+	 */
+	public int record(int i) {
+		return records.get(i);
+	}
+	
+	/**
+	 * Get the neighbours of a sector, after compute() 
+	 * 
+	 * @param i index of the sector
+	 * @return indexes of the neighbours, sorted
+	 */
+	public int[] neighboursOf(int i) {
+		return neighbours[i];
+	}
+	
+	/**
+	 * Get the number of intersecting pairs with overlapping interiors
+	 * 
+	 * @return number of pairs
+	 */
+	public int overlaps() {
+		return overlaps.size();
+	}
+	
+	/**
+	 * Get the number of neighbours with a sliver overlap, below the tolerance
+	 * 
+	 * @return number of pairs
+	 */
+	public int slivers() {
+		return slivers;
+	}
+	
+	/**
+	 * Write the pairs with overlapping interiors, which are not neighbours,
+	 * as CSV: sector, record, other sector, other record, area of the overlap
+	 * 
+	 * @param w writer
+	 * @throws IOException 
+	 */
+	public void report(Writer w) throws IOException {
+		overlaps.sort((a, b) -> (a.i != b.i) ? Integer.compare(a.i, b.i) 
+											: Integer.compare(a.j, b.j));
+		for (Overlap o: overlaps) {
+			w.write(sectors.get(o.i) + "," + records.get(o.i) + "," 
+				+ sectors.get(o.j) + "," + records.get(o.j) + "," + o.area + "\n");
+		}
+		w.flush();
+	}
+	
+	/**
+	 * Constructor, indexes the sectors of a sector table
+	 * 
+	 * @param table sectors
+	 * @param tolerance overlap still accepted, as a fraction of the smallest area
+	 */
+	public Adjacency(SectorTable table, double tolerance) {
+		this.tolerance = tolerance;
+		for (int row = 0; row < table.size(); row++) {
+			if (table.firstRing(row) == table.firstRing(row + 1)) {
+				continue;
+			}
+			Geometry geom = table.geometry(row, factory);
+			Envelope env = geom.getEnvelopeInternal();
+			tree.insert(env, geoms.size());
+			geoms.add(geom);
+			sectors.add(table.sector(row));
+			records.add(table.record(row));
+		}
+		tree.build();
+	}
+	
+	/**
+	 * Constructor, indexes the sectors of a sector table with the default 
+	 * tolerance
+	 * 
+	 * @param table sectors
+	 */
+	public Adjacency(SectorTable table) {
+		this(table, SLIVER);
+	}
+}
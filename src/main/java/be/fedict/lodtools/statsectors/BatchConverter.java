@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opengis.referencing.FactoryException;
+
+/**
+ * Convert many shapefiles in one JVM, e.g. all vintages of the sectors.
+ *
+ * The manifest has one conversion per line: the shapefile, the RDF output
+ * file and optionally --key=value options overriding the global options.
+ * Empty lines and lines starting with # are ignored.
+ *
+ * Conversions run on a fixed number of threads, and a memory budget limits
+ * the number of files in flight: each conversion reserves an estimate 
+ * based on the size of its .SHP and .DBF files.
+ * A conversion larger than the budget runs on its own.
+ * Value caches and coordinate transformations are shared by all conversions.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class BatchConverter {
+	private final static Logger LOG = Logger.getLogger(BatchConverter.class.getName());
+	
+	/* Estimated heap needed per byte of .SHP and .DBF input. 
+	   Not measured: a streaming conversion only holds the geometries of 
+	   the partitions in flight and the output buffers, the files themselves
+	   are mapped outside the heap. */
+	private final static int BYTES_PER_BYTE = 3;
+	/* Estimated heap per byte of input when all sectors are loaded, 
+	   derived from object sizes instead of measured: a JTS coordinate takes
+	   about 48 bytes (object and reference) for 16 bytes in the .SHP, 
+	   and the sector table keeps another copy of the coordinates. */
+	private final static int TABLE_BYTES_PER_BYTE = 6;
+	
+	private final int jobs;
+	private final int budget;
+	private final Semaphore memory;
+	private final List<Job> queue = new ArrayList<>();
+	
+	/**
+	 * One conversion
+	 */
+	private static class Job {
+		private final File fin;
+		private final File fout;
+		private final Map<String,String> opts;
+		private final int weight;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param fin shapefile
+		 * @param fout RDF output file
+		 * @param opts options
+		 * @param weight estimated memory, in kB
+		 */
+		public Job(File fin, File fout, Map<String,String> opts, int weight) {
+			this.fin = fin;
+			this.fout = fout;
+			this.opts = opts;
+			this.weight = weight;
+		}
+	}
+	
+	/**
+	 * Estimate the memory needed to convert a shapefile
+	 * 
+	 * @param fin shapefile
+	 * @param opts options
+	 * @return memory in kB
+	 */
+	private static long estimate(File fin, Map<String,String> opts) {
+		File dbf = ShxIndex.sibling(fin, "dbf");
+		int factor = BYTES_PER_BYTE;
+		for (String opt: Main.TABLE_OPTIONS) {
+			if (opts.containsKey(opt)) {
+				factor = TABLE_BYTES_PER_BYTE;
+			}
+		}
+		return (fin.length() + dbf.length()) * factor / 1024;
+	}
+	
+	/**
+	 * Add a conversion
+	 * 
+	 * @param fin shapefile
+	 * @param fout RDF output file
+	 * @param opts options
+	 */
+	public void add(File fin, File fout, Map<String,String> opts) {
+		int weight = (int) Math.max(1, Math.min(budget, estimate(fin, opts)));
+		queue.add(new Job(fin, fout, opts, weight));
+	}
+	
+	/**
+	 * Read the conversions from a manifest file
+	 * 
+	 * @param manifest manifest file
+	 * @param global global options
+	 * @throws IOException 
+	 */
+	public void read(File manifest, Map<String,String> global) throws IOException {
+		try (BufferedReader r = Files.newBufferedReader(manifest.toPath(), 
+													StandardCharsets.UTF_8)) {
+			String line;
+			int nr = 0;
+			while ((line = r.readLine()) != null) {
+				nr++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				Map<String,String> opts = new HashMap<>(global);
+				opts.remove("batch");
+				List<String> files = Main.parseArgs(line.split("\\s+"), opts);
+				if (files.size() != 2) {
+					throw new IOException("Expected input and output file on line " + nr);
+				}
+				add(new File(files.get(0)), new File(files.get(1)), opts);
+			}
+		}
+	}
+	
+	/**
+	 * Convert one file, waiting for enough memory.
+	 * The job has its own metrics, which are logged and added to the totals
+	 * when it is finished.
+	 * 
+	 * @param job conversion
+	 * @return true if successful
+	 * @throws InterruptedException
+	 */
+	private boolean convert(Job job) throws InterruptedException {
+		memory.acquire(job.weight);
+		Metrics metrics = Main.METRICS.job(job.fout.getPath());
+		try {
+			LOG.log(Level.INFO, "Converting {0} to {1}", 
+										new Object[] { job.fin, job.fout });
+			Main.convert(job.fin, job.fout, job.opts, metrics);
+			return true;
+		} catch (IOException|RuntimeException|FactoryException ex) {
+			LOG.log(Level.SEVERE, "Failed to convert " + job.fin, ex);
+			return false;
+		} finally {
+			memory.release(job.weight);
+			LOG.log(Level.INFO, "{0}: {1}", 
+						new Object[] { job.fout, metrics.toJobString() });
+			Main.METRICS.add(metrics);
+		}
+	}
+	
+	/**
+	 * Run all conversions, in the order of the manifest
+	 * 
+	 * @return number of failed conversions
+	 * @throws FactoryException 
+	 */
+	public int run() throws FactoryException {
+		// resolve the coordinate reference systems once, before starting
+		for (String target: Arrays.asList(Reprojection.LAMBERT72, Reprojection.WGS84)) {
+			Reprojection.get(Reprojection.LAMBERT72, target);
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(jobs);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (Job job: queue) {
+			results.add(pool.submit(() -> convert(job)));
+		}
+		pool.shutdown();
+		
+		int failed = 0;
+		for (Future<Boolean> res: results) {
+			try {
+				if (!res.get()) {
+					failed++;
+				}
+			} catch (InterruptedException|ExecutionException ex) {
+				failed++;
+			}
+		}
+		LOG.log(Level.INFO, "Converted {0} files, {1} failed", 
+								new Object[] { results.size(), failed });
+		return failed;
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param jobs maximum number of concurrent conversions
+	 * @param budget memory budget in bytes
+	 */
+	public BatchConverter(int jobs, long budget) {
+		this.jobs = jobs;
+		this.budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / 1024));
+		// fair, so large files are not overtaken forever by small ones
+		this.memory = new Semaphore(this.budget, true);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.rdf4j.IsolationLevels;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+
+/**
+ * RDF handler adding statements to a repository in batches.
+ *
+ * Every batch is added in its own transaction, without isolation,
+ * which is a lot faster than one transaction per statement or one huge
+ * transaction for the whole load.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class BatchLoader extends AbstractRDFHandler {
+	private final static Logger LOG = Logger.getLogger(BatchLoader.class.getName());
+
+	private final RepositoryConnection conn;
+	private final int batch;
+	private final List<Statement> buf;
+
+	private long count = 0;
+	private long start;
+	private long end;
+
+	/**
+	 * Add the buffered statements in one transaction
+	 */
+	private void commit() {
+		if (buf.isEmpty()) {
+			return;
+		}
+		try {
+			conn.begin(IsolationLevels.NONE);
+			conn.add(buf);
+			conn.commit();
+		} catch (RepositoryException re) {
+			throw new RDFHandlerException(re);
+		}
+		count += buf.size();
+		buf.clear();
+	}
+
+	@Override
+	public void startRDF() {
+		start = System.nanoTime();
+	}
+
+	@Override
+	public void handleStatement(Statement st) {
+		buf.add(st);
+		if (buf.size() >= batch) {
+			commit();
+		}
+	}
+
+	@Override
+	public void endRDF() {
+		commit();
+		end = System.nanoTime();
+		LOG.log(Level.INFO, "Loaded {0} statements in {1} s, {2} statements/s",
+			new Object[] { count, (end - start) / 1e9, (long) getRate() });
+	}
+
+	/**
+	 * Get the number of statements added so far
+	 *
+	 * @return number of statements
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the load throughput
+	 *
+	 * @return statements per second
+	 */
+	public double getRate() {
+		long nanos = ((end > start) ? end : System.nanoTime()) - start;
+		return (nanos > 0) ? count * 1e9 / nanos : 0;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param conn repository connection
+	 * @param batch number of statements per transaction
+	 */
+	public BatchLoader(RepositoryConnection conn, int batch) {
+		this.conn = conn;
+		this.batch = batch;
+		this.buf = new ArrayList<>(batch);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream compressing independent blocks in parallel.
+ *
+ * Each block becomes a complete gzip member, and the members are written
+ * in order. A concatenation of gzip members is a valid gzip file,
+ * so the result can be decompressed with standard tools.
+ * Only a limited number of blocks is kept in memory at any time.
+ * An empty stream is written as one empty member.
+ * 
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class BlockGzipOutputStream extends OutputStream {
+	private final static int BLOCK_SIZE = 1024 * 1024;
+	
+	/* Compression threads don't keep the JVM alive */
+	private final static ThreadFactory DAEMONS = r -> {
+		Thread t = new Thread(r, "gzip");
+		t.setDaemon(true);
+		return t;
+	};
+	
+	private final OutputStream out;
+	private final ExecutorService pool;
+	private final int maxPending;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int pos = 0;
+	private long members = 0;
+	private boolean closed = false;
+	
+	/**
+	 * Compress a block into a gzip member
+	 * 
+	 * @param buf bytes
+	 * @param len number of bytes
+	 * @return compressed bytes
+	 */
+	private static byte[] compress(byte[] buf, int len) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 4 + 64);
+		try (GZIPOutputStream gz = new GZIPOutputStream(bytes, 64 * 1024)) {
+			gz.write(buf, 0, len);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Write the oldest compressed block to the underlying stream
+	 * 
+	 * @throws IOException 
+	 */
+	private void writeOldest() throws IOException {
+		try {
+			out.write(pending.poll().get());
+			members++;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ie);
+		} catch (ExecutionException ee) {
+			throw new IOException(ee.getCause());
+		}
+	}
+	
+	/**
+	 * Submit the current block for compression
+	 * 
+	 * @throws IOException 
+	 */
+	private void submit() throws IOException {
+		if (pos == 0) {
+			return;
+		}
+		while (pending.size() >= maxPending) {
+			writeOldest();
+		}
+		final byte[] buf = block;
+		final int len = pos;
+		pending.add(pool.submit(() -> compress(buf, len)));
+		block = new byte[BLOCK_SIZE];
+		pos = 0;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (pos == block.length) {
+			submit();
+		}
+		block[pos++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (pos == block.length) {
+				submit();
+			}
+			int n = Math.min(len, block.length - pos);
+			System.arraycopy(b, off, block, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Compress and write all pending data.
+	 * Note that this ends the current gzip member.
+	 * 
+	 * @throws IOException 
+	 */
+	@Override
+	public void flush() throws IOException {
+		submit();
+		while (!pending.isEmpty()) {
+			writeOldest();
+		}
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			// zero bytes is not a valid gzip file
+			if (members == 0) {
+				out.write(compress(block, 0));
+			}
+		} finally {
+			pool.shutdownNow();
+			out.close();
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param out underlying output stream
+	 * @param threads number of compression threads
+	 */
+	public BlockGzipOutputStream(OutputStream out, int threads) {
+		this.out = out;
+		this.pool = Executors.newFixedThreadPool(threads, DAEMONS);
+		this.maxPending = threads * 2;
+	}
+}
@@ -0,0 +1,690 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Simplify all sectors of a sector table at once, keeping shared borders
+ * between neighbouring sectors identical.
+ *
+ * Vertices with the same coordinates are shared between sectors.
+ * A vertex lying on a segment of a neighbour (T-junction) is first inserted
+ * in that segment, so both sectors have the same vertices on their border.
+ * Rings are split into arcs at the nodes, i.e. vertices that do not have
+ * exactly two neighbours. Each arc is simplified only once with
+ * Douglas-Peucker, in a fixed direction, so both sectors on either side
+ * of an arc get the same simplified border. Nodes are never removed.
+ *
+ * Douglas-Peucker does not look at the other arcs, so a simplified arc may
+ * still cross another border of the same sector, e.g. in a narrow sector or
+ * near a hole. Each simplified sector is therefore validated, and the arcs
+ * of an invalid sector are simplified again with half the tolerance, until
+ * the original vertices are restored. Overlaps between sectors that do not
+ * share an arc are not checked.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class CoverageSimplifier {
+	private final static GeometryFactory GEOM_FAC = new GeometryFactory();
+	/* Maximum distance of a T-junction to a segment, in units of the CRS */
+	private final static double SNAP = 1e-6;
+	/* Fraction of the tolerance below which the original arc is restored */
+	private final static double MIN_FRACTION = 1.0 / 64;
+
+	/* Flat coordinates and rings of the sectors */
+	private final SectorTable table;
+	private int positions;
+	private final int rings;
+	/* Copy of the coordinates, only when vertices were inserted */
+	private double[] xs = null;
+	private double[] ys = null;
+	private int[] starts = null;
+	private int junctions = 0;
+
+	/* Shared vertices */
+	private int[] vid;
+	private int vertices = 0;
+	private boolean[] node;
+	private boolean[] small;
+
+	private final List<int[]> arcs = new ArrayList<>();
+	private int[] arcOf;
+
+	/**
+	 * Vertex to be inserted in a segment
+	 */
+	private static class Junction {
+		private final int pos;
+		private final double t;
+		private final int vertex;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param pos start position of the segment
+		 * @param t relative distance along the segment
+		 * @param vertex position of the vertex to insert
+		 */
+		private Junction(int pos, double t, int vertex) {
+			this.pos = pos;
+			this.t = t;
+			this.vertex = vertex;
+		}
+	}
+
+	/**
+	 * Get the x coordinate of a position
+	 * 
+	 * @param p position
+	 * @return x coordinate
+	 */
+	private double x(int p) {
+		return (xs == null) ? table.x(p) : xs[p];
+	}
+
+	/**
+	 * Get the y coordinate of a position
+	 * 
+	 * @param p position
+	 * @return y coordinate
+	 */
+	private double y(int p) {
+		return (ys == null) ? table.y(p) : ys[p];
+	}
+
+	/**
+	 * Get the first position of a ring
+	 * 
+	 * @param r ring, or number of rings for the end of the last ring
+	 * @return position
+	 */
+	private int start(int r) {
+		return (starts == null) ? table.ringStart(r) : starts[r];
+	}
+
+	/**
+	 * Assign the same vertex id to positions with the same coordinates,
+	 * using an open addressing hash table.
+	 */
+	private void shareVertices() {
+		vid = new int[positions];
+		int[] rep = new int[positions];
+		int size = Integer.highestOneBit(Math.max(positions, 1) * 2) * 2;
+		int[] slots = new int[size];
+		Arrays.fill(slots, -1);
+
+		for (int p = 0; p < positions; p++) {
+			double x = table.x(p);
+			double y = table.y(p);
+			long bits = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+			int h = (int) (bits ^ (bits >>> 32)) & (size - 1);
+			while (slots[h] != -1 &&
+					(table.x(rep[slots[h]]) != x || table.y(rep[slots[h]]) != y)) {
+				h = (h + 1) & (size - 1);
+			}
+			if (slots[h] == -1) {
+				slots[h] = vertices;
+				rep[vertices] = p;
+				vertices++;
+			}
+			vid[p] = slots[h];
+		}
+	}
+
+	/**
+	 * Find the slot of a segment in an open addressing hash table
+	 * 
+	 * @param a vertex
+	 * @param b other vertex
+	 * @param keys segments in the hash table, -1 for an empty slot
+	 * @return slot
+	 */
+	private static int slot(int a, int b, long[] keys) {
+		long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+		long bits = key * 31 + (key >>> 32);
+		int h = (int) (bits ^ (bits >>> 32)) & (keys.length - 1);
+		while (keys[h] != -1 && keys[h] != key) {
+			h = (h + 1) & (keys.length - 1);
+		}
+		keys[h] = key;
+		return h;
+	}
+
+	/**
+	 * Find the first index of a sorted array with a value not below a minimum
+	 * 
+	 * @param values sorted values
+	 * @param min minimum
+	 * @return index, or length of the array if all values are lower
+	 */
+	private static int lowerBound(double[] values, double min) {
+		int lo = 0;
+		int hi = values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] < min) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Find the vertices lying on a segment of another ring.
+	 * Only segments used by one ring are checked: in a clean coverage, 
+	 * these are only found on the outer border.
+	 * 
+	 * @return vertices to insert
+	 */
+	private List<Junction> findJunctions() {
+		int size = Integer.highestOneBit(Math.max(positions, 1) * 2) * 2;
+		long[] keys = new long[size];
+		int[] count = new int[size];
+		int[] slots = new int[positions];
+		Arrays.fill(keys, -1);
+		for (int r = 0; r < rings; r++) {
+			for (int p = start(r); p < start(r + 1) - 1; p++) {
+				slots[p] = slot(vid[p], vid[p + 1], keys);
+				count[slots[p]]++;
+			}
+		}
+
+		boolean[] added = new boolean[vertices];
+		List<Integer> single = new ArrayList<>();
+		List<Integer> cands = new ArrayList<>();
+		for (int r = 0; r < rings; r++) {
+			for (int p = start(r); p < start(r + 1) - 1; p++) {
+				if (vid[p] == vid[p + 1] || count[slots[p]] > 1) {
+					continue;
+				}
+				single.add(p);
+				for (int q = p; q <= p + 1; q++) {
+					if (!added[vid[q]]) {
+						added[vid[q]] = true;
+						cands.add(q);
+					}
+				}
+			}
+		}
+		// candidate vertices sorted on x, scanned for the x range of a segment
+		int[] sorted = cands.stream().sorted(Comparator.comparingDouble(this::x))
+										.mapToInt(Integer::intValue).toArray();
+		double[] sx = Arrays.stream(sorted).mapToDouble(this::x).toArray();
+
+		List<Junction> found = new ArrayList<>();
+		for (int p: single) {
+			double minY = Math.min(y(p), y(p + 1)) - SNAP;
+			double maxY = Math.max(y(p), y(p + 1)) + SNAP;
+			double maxX = Math.max(x(p), x(p + 1)) + SNAP;
+			for (int i = lowerBound(sx, Math.min(x(p), x(p + 1)) - SNAP); 
+								i < sx.length && sx[i] <= maxX; i++) {
+				int q = sorted[i];
+				if (y(q) < minY || y(q) > maxY || vid[q] == vid[p] || vid[q] == vid[p + 1]) {
+					continue;
+				}
+				double dx = x(p + 1) - x(p);
+				double dy = y(p + 1) - y(p);
+				double t = ((x(q) - x(p)) * dx + (y(q) - y(p)) * dy) / (dx * dx + dy * dy);
+				if (t > 0 && t < 1 && distSq(q, p, p + 1) <= SNAP * SNAP) {
+					found.add(new Junction(p, t, q));
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Insert the vertices at T-junctions in the segments they lie on, 
+	 * in a copy of the coordinates. The inserted positions share the vertex
+	 * id of the junction.
+	 */
+	private void insertJunctions() {
+		List<Junction> found = findJunctions();
+		if (found.isEmpty()) {
+			return;
+		}
+		Collections.sort(found, Comparator.comparingInt((Junction j) -> j.pos)
+											.thenComparingDouble(j -> j.t));
+		double[] nx = new double[positions + found.size()];
+		double[] ny = new double[positions + found.size()];
+		int[] nv = new int[positions + found.size()];
+		int[] ns = new int[rings + 1];
+		int i = 0;
+		int j = 0;
+		for (int r = 0; r < rings; r++) {
+			ns[r] = i;
+			for (int p = start(r); p < start(r + 1); p++) {
+				nx[i] = x(p);
+				ny[i] = y(p);
+				nv[i++] = vid[p];
+				while (j < found.size() && found.get(j).pos == p) {
+					int q = found.get(j++).vertex;
+					nx[i] = x(q);
+					ny[i] = y(q);
+					nv[i++] = vid[q];
+				}
+			}
+		}
+		ns[rings] = i;
+
+		xs = nx;
+		ys = ny;
+		vid = nv;
+		starts = ns;
+		positions = i;
+		junctions = found.size();
+	}
+
+	/**
+	 * Add a neighbour to a vertex, more than two neighbours makes it a node
+	 *
+	 * @param v vertex
+	 * @param n neighbour
+	 * @param nb1 first neighbour of each vertex
+	 * @param nb2 second neighbour of each vertex
+	 */
+	private void addNeighbour(int v, int n, int[] nb1, int[] nb2) {
+		if (n == nb1[v] || n == nb2[v]) {
+			return;
+		}
+		if (nb1[v] == -1) {
+			nb1[v] = n;
+		} else if (nb2[v] == -1) {
+			nb2[v] = n;
+		} else {
+			node[v] = true;
+		}
+	}
+
+	/**
+	 * Find the nodes, i.e. vertices without exactly two distinct neighbours
+	 */
+	private void findNodes() {
+		int[] nb1 = new int[vertices];
+		int[] nb2 = new int[vertices];
+		Arrays.fill(nb1, -1);
+		Arrays.fill(nb2, -1);
+		node = new boolean[vertices];
+
+		for (int r = 0; r < rings; r++) {
+			int start = start(r);
+			int end = start(r + 1) - 1; // skip closing position
+			for (int p = start; p < end; p++) {
+				int v = vid[p];
+				int prev = vid[(p == start) ? end - 1 : p - 1];
+				int next = vid[p + 1];
+				addNeighbour(v, prev, nb1, nb2);
+				addNeighbour(v, next, nb1, nb2);
+			}
+		}
+		for (int v = 0; v < vertices; v++) {
+			if (nb2[v] == -1) {
+				node[v] = true;
+			}
+		}
+	}
+
+	/**
+	 * Make sure each ring has at least one node, and mark the vertices of
+	 * rings with less than three nodes, which must keep some vertices
+	 * to remain a valid ring.
+	 */
+	private void checkRings() {
+		small = new boolean[vertices];
+		for (int r = 0; r < rings; r++) {
+			int start = start(r);
+			int end = start(r + 1) - 1;
+			int nodes = 0;
+			int min = start;
+			for (int p = start; p < end; p++) {
+				if (node[vid[p]]) {
+					nodes++;
+				}
+				if (vid[p] < vid[min]) {
+					min = p;
+				}
+			}
+			if (nodes == 0) {
+				// same choice for every ring sharing all its vertices
+				node[vid[min]] = true;
+				nodes = 1;
+			}
+			if (nodes < 3) {
+				for (int p = start; p < end; p++) {
+					small[vid[p]] = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Split the rings into arcs between nodes, each arc only once and in
+	 * a fixed direction
+	 */
+	private void findArcs() {
+		boolean[] done = new boolean[vertices];
+		arcOf = new int[vertices];
+		Arrays.fill(arcOf, -1);
+		for (int r = 0; r < rings; r++) {
+			int start = start(r);
+			int len = start(r + 1) - 1 - start;
+			if (len < 3) {
+				continue;
+			}
+			int first = start;
+			while (!node[vid[first]]) {
+				first++;
+			}
+			int off = first - start;
+			int i = 0;
+			while (i < len) {
+				// walk from node to the next node
+				int j = i + 1;
+				while (!node[vid[start + (off + j) % len]]) {
+					j++;
+				}
+				if (j > i + 1 && !done[vid[start + (off + i + 1) % len]]) {
+					int[] arc = new int[j - i + 1];
+					for (int k = 0; k <= j - i; k++) {
+						arc[k] = start + (off + i + k) % len;
+					}
+					for (int k = 1; k < arc.length - 1; k++) {
+						done[vid[arc[k]]] = true;
+						arcOf[vid[arc[k]]] = arcs.size();
+					}
+					arcs.add(canonical(arc));
+				}
+				i = j;
+			}
+		}
+	}
+
+	/**
+	 * Orient an arc, so that neighbours get the same simplification
+	 *
+	 * @param arc positions of the arc
+	 * @return arc, possibly reversed
+	 */
+	private int[] canonical(int[] arc) {
+		int a = vid[arc[0]];
+		int b = vid[arc[arc.length - 1]];
+		if (a == b) {
+			a = vid[arc[1]];
+			b = vid[arc[arc.length - 2]];
+		}
+		if (a > b) {
+			for (int i = 0, j = arc.length - 1; i < j; i++, j--) {
+				int tmp = arc[i];
+				arc[i] = arc[j];
+				arc[j] = tmp;
+			}
+		}
+		return arc;
+	}
+
+	/**
+	 * Squared distance from a point to a segment
+	 *
+	 * @param p point position
+	 * @param a segment start position
+	 * @param b segment end position
+	 * @return squared distance
+	 */
+	private double distSq(int p, int a, int b) {
+		double ax = x(a);
+		double ay = y(a);
+		double dx = x(b) - ax;
+		double dy = y(b) - ay;
+		double len = dx * dx + dy * dy;
+		double t = (len == 0) ? 0
+			: ((x(p) - ax) * dx + (y(p) - ay) * dy) / len;
+		t = Math.max(0, Math.min(1, t));
+		double ex = ax + t * dx - x(p);
+		double ey = ay + t * dy - y(p);
+		return ex * ex + ey * ey;
+	}
+
+	/**
+	 * Simplify an arc with Douglas-Peucker, marking the vertices to keep.
+	 * Closed arcs keep at least two vertices, arcs of small rings one.
+	 * A tolerance of zero keeps all vertices.
+	 *
+	 * @param arc positions of the arc
+	 * @param tol tolerance
+	 * @param keep vertices to keep
+	 */
+	private void simplify(int[] arc, double tol, boolean[] keep) {
+		if (tol <= 0) {
+			for (int k = 1; k < arc.length - 1; k++) {
+				keep[vid[arc[k]]] = true;
+			}
+			return;
+		}
+		boolean closed = vid[arc[0]] == vid[arc[arc.length - 1]];
+		int min = closed ? 2 : (small[vid[arc[1]]] ? 1 : 0);
+		double tolSq = tol * tol;
+		int kept = 0;
+
+		int[] stack = new int[arc.length * 2];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = arc.length - 1;
+		while (top > 0) {
+			int b = stack[--top];
+			int a = stack[--top];
+			if (b <= a + 1) {
+				continue;
+			}
+			int far = -1;
+			double max = -1;
+			for (int k = a + 1; k < b; k++) {
+				double d = distSq(arc[k], arc[a], arc[b]);
+				if (d > max) {
+					max = d;
+					far = k;
+				}
+			}
+			if (max > tolSq || kept < min) {
+				keep[vid[arc[far]]] = true;
+				kept++;
+				stack[top++] = a;
+				stack[top++] = far;
+				stack[top++] = far;
+				stack[top++] = b;
+			}
+		}
+	}
+
+	/**
+	 * Check if a sector has a vertex on one of the flagged arcs
+	 * 
+	 * @param row row in the sector table
+	 * @param flags flag for each arc
+	 * @return true if the sector is on a flagged arc
+	 */
+	private boolean onArcs(int row, boolean[] flags) {
+		for (int r = table.firstRing(row); r < table.firstRing(row + 1); r++) {
+			for (int p = start(r); p < start(r + 1); p++) {
+				int a = arcOf[vid[p]];
+				if (a >= 0 && flags[a]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Simplify all arcs in parallel, and simplify the arcs of invalid 
+	 * sectors again with half the tolerance until all sectors are valid.
+	 * Douglas-Peucker with a lower tolerance keeps a superset of the 
+	 * vertices, so vertices that are already kept do not have to be reset.
+	 *
+	 * @param tol tolerance, in units of the coordinate reference system
+	 * @return vertices to keep
+	 */
+	public boolean[] simplify(double tol) {
+		boolean[] keep = Arrays.copyOf(node, vertices);
+		double[] tols = new double[arcs.size()];
+		boolean[] changed = new boolean[arcs.size()];
+		Arrays.fill(tols, tol);
+		Arrays.fill(changed, true);
+
+		boolean retry = true;
+		while (retry) {
+			// arcs do not share interior vertices, so no locking is needed
+			IntStream.range(0, arcs.size()).parallel().filter(a -> changed[a])
+							.forEach(a -> simplify(arcs.get(a), tols[a], keep));
+			int[] invalid = IntStream.range(0, table.size()).parallel()
+							.filter(row -> onArcs(row, changed))
+							.filter(row -> !geometry(row, keep).isValid()).toArray();
+
+			Arrays.fill(changed, false);
+			retry = false;
+			for (int row: invalid) {
+				for (int r = table.firstRing(row); r < table.firstRing(row + 1); r++) {
+					for (int p = start(r); p < start(r + 1); p++) {
+						int a = arcOf[vid[p]];
+						if (a >= 0 && !changed[a] && tols[a] > 0) {
+							tols[a] = (tols[a] > tol * MIN_FRACTION) ? tols[a] / 2 : 0;
+							changed[a] = true;
+							retry = true;
+						}
+					}
+				}
+			}
+		}
+		return keep;
+	}
+
+	/**
+	 * Build a ring from the kept vertices, or the original ring if too few
+	 * vertices remain.
+	 *
+	 * @param r ring
+	 * @param keep vertices to keep
+	 * @return linear ring
+	 */
+	private LinearRing ring(int r, boolean[] keep) {
+		int start = start(r);
+		int end = start(r + 1);
+		int n = 0;
+		for (int p = start; p < end - 1; p++) {
+			if (keep[vid[p]]) {
+				n++;
+			}
+		}
+		boolean all = (n < 3);
+		Coordinate[] coords = new Coordinate[all ? end - start : n + 1];
+		int i = 0;
+		for (int p = start; p < end - 1; p++) {
+			if (all || keep[vid[p]]) {
+				coords[i++] = new Coordinate(x(p), y(p));
+			}
+		}
+		coords[i] = new Coordinate(coords[0]);
+		return GEOM_FAC.createLinearRing(coords);
+	}
+
+	/**
+	 * Get the simplified geometry of a sector
+	 *
+	 * @param row row in the sector table
+	 * @param keep vertices to keep, as returned by simplify()
+	 * @return multipolygon
+	 */
+	public Geometry geometry(int row, boolean[] keep) {
+		return SectorTable.polygons(GEOM_FAC, table.firstRing(row), 
+					table.firstRing(row + 1), table::shellOf, r -> ring(r, keep));
+	}
+
+	/**
+	 * Get the number of sectors
+	 *
+	 * @return number of sectors
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Get the number of arcs
+	 *
+	 * @return number of arcs
+	 */
+	public int arcs() {
+		return arcs.size();
+	}
+
+	/**
+	 * Get the number of vertices inserted at T-junctions
+	 *
+	 * @return number of vertices
+	 */
+	public int junctions() {
+		return junctions;
+	}
+
+	/**
+	 * Count the vertices that are kept
+	 *
+	 * @param keep vertices to keep
+	 * @return number of vertices
+	 */
+	public static long count(boolean[] keep) {
+		return IntStream.range(0, keep.length).filter(i -> keep[i]).count();
+	}
+
+	/**
+	 * Constructor, builds the arcs of all sectors of a table
+	 *
+	 * @param table sector table
+	 */
+	public CoverageSimplifier(SectorTable table) {
+		this.table = table;
+		this.positions = table.coordinates();
+		this.rings = table.rings();
+
+		shareVertices();
+		insertJunctions();
+		findNodes();
+		checkRings();
+		findArcs();
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Select the triples of changed sectors from an N-Triples file.
+ *
+ * Used to create the files with added and removed triples between two
+ * versions of the shapefile, so a triple store can be updated without
+ * reloading everything.
+ * The parents of the changed sectors (municipalities, provinces...) can be
+ * found by following the links to the parents.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Delta {
+	/* First bytes of a gzip member */
+	private final static int GZIP_MAGIC_1 = 0x1f;
+	private final static int GZIP_MAGIC_2 = 0x8b;
+	
+	/**
+	 * Open an N-Triples file, gzipped files are decompressed.
+	 * Compression is detected by the magic bytes, not by the name of the 
+	 * file, since --gzip does not add .gz to the name of the output.
+	 *
+	 * @param f file
+	 * @return input stream
+	 * @throws IOException
+	 */
+	static InputStream open(File f) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(new FileInputStream(f), 2);
+		byte[] magic = new byte[2];
+		int len = 0;
+		int n;
+		while (len < magic.length && (n = in.read(magic, len, magic.length - len)) > 0) {
+			len += n;
+		}
+		if (len > 0) {
+			in.unread(magic, 0, len);
+		}
+		boolean gzip = (len == 2) && (magic[0] & 0xFF) == GZIP_MAGIC_1
+									&& (magic[1] & 0xFF) == GZIP_MAGIC_2;
+		return gzip ? new GZIPInputStream(in, 64 * 1024) : in;
+	}
+
+	/**
+	 * Get all resources linked from a set of subjects by a predicate,
+	 * directly or indirectly, excluding the subjects themselves
+	 *
+	 * @param fin N-Triples file
+	 * @param subjects subject IRIs
+	 * @param pred predicate IRI, e.g. spatial:PP
+	 * @return object IRIs
+	 * @throws IOException
+	 */
+	public static Set<String> closure(File fin, Set<String> subjects, String pred)
+														throws IOException {
+		String link = "> <" + pred + "> <";
+		SetMultimap<String,String> links = HashMultimap.create();
+		try (BufferedReader r = new BufferedReader(
+					new InputStreamReader(open(fin), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				int end = line.indexOf(link);
+				if (line.startsWith("<") && end > 0) {
+					int start = end + link.length();
+					int close = line.indexOf('>', start);
+					if (close > start) {
+						links.put(line.substring(1, end), line.substring(start, close));
+					}
+				}
+			}
+		}
+		Set<String> found = new HashSet<>();
+		Deque<String> todo = new ArrayDeque<>(subjects);
+		while (!todo.isEmpty()) {
+			for (String o: links.get(todo.poll())) {
+				if (!subjects.contains(o) && found.add(o)) {
+					todo.add(o);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Copy the triples with one of the subjects to an output stream
+	 *
+	 * @param fin N-Triples file
+	 * @param subjects subject IRIs
+	 * @param out output stream
+	 * @return number of triples copied
+	 * @throws IOException
+	 */
+	public static long filter(File fin, Set<String> subjects, OutputStream out)
+														throws IOException {
+		long n = 0;
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		try (BufferedReader r = new BufferedReader(
+					new InputStreamReader(open(fin), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				int end = line.indexOf("> ");
+				if (line.startsWith("<") && end > 0 
+						&& subjects.contains(line.substring(1, end))) {
+					w.write(line);
+					w.write('\n');
+					n++;
+				}
+			}
+		}
+		w.flush();
+		return n;
+	}
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sort N-Triples files and remove duplicate triples, using temporary files
+ * when the triples do not fit in the memory budget.
+ *
+ * Lines are read as raw bytes, runs of lines within the budget are sorted
+ * in parallel and written to temporary files, which are then merged.
+ * Lines are compared as unsigned bytes, which is the same as comparing 
+ * the code points of the UTF-8 text.
+ * Runs and the result are written through a direct buffer.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class ExternalSorter {
+	private final static Logger LOG = Logger.getLogger(ExternalSorter.class.getName());
+	
+	final static int BUF_SIZE = 1024 * 1024;
+	/* Estimated overhead of a line in memory: array header and reference */
+	private final static int LINE_OVERHEAD = 24;
+	
+	private final long budget;
+	private final File tmpDir;
+	private final List<File> runs = new ArrayList<>();
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUF_SIZE);
+	
+	private byte[][] lines = new byte[64 * 1024][];
+	private int count = 0;
+	private long used = 0;
+	private long read = 0;
+	
+	/**
+	 * Compare two lines as unsigned bytes
+	 * 
+	 * @param a first line
+	 * @param b second line
+	 * @return negative, zero or positive
+	 */
+	private static int compare(byte[] a, byte[] b) {
+		int len = Math.min(a.length, b.length);
+		for (int i = 0; i < len; i++) {
+			int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+	
+	/**
+	 * Remove the carriage return at the end of a line, if any
+	 * 
+	 * @param line line
+	 * @return line without carriage return
+	 */
+	private static byte[] stripCr(byte[] line) {
+		return (line.length > 0 && line[line.length - 1] == '\r') 
+					? Arrays.copyOf(line, line.length - 1) : line;
+	}
+	
+	/**
+	 * Lines of an input stream, as raw bytes
+	 */
+	private static class LineReader implements Closeable {
+		private final InputStream in;
+		private final byte[] buf;
+		private int pos = 0;
+		private int len = 0;
+		
+		/**
+		 * Read the next line, without the end of line
+		 * 
+		 * @return line or null at the end of the stream
+		 * @throws IOException 
+		 */
+		public byte[] next() throws IOException {
+			ByteArrayOutputStream partial = null;
+			while (true) {
+				if (pos == len) {
+					len = in.read(buf);
+					pos = 0;
+					if (len <= 0) {
+						len = 0;
+						return (partial != null && partial.size() > 0) 
+									? stripCr(partial.toByteArray()) : null;
+					}
+				}
+				int start = pos;
+				while (pos < len && buf[pos] != '\n') {
+					pos++;
+				}
+				if (pos < len) {
+					int end = (pos > start && buf[pos - 1] == '\r') ? pos - 1 : pos;
+					pos++;
+					if (partial == null) {
+						return Arrays.copyOfRange(buf, start, end);
+					}
+					// the carriage return may be at the end of the previous block
+					partial.write(buf, start, end - start);
+					return stripCr(partial.toByteArray());
+				}
+				// line continues in the next block
+				if (partial == null) {
+					partial = new ByteArrayOutputStream(256);
+				}
+				partial.write(buf, start, pos - start);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param in input stream
+		 * @param size buffer size
+		 */
+		public LineReader(InputStream in, int size) {
+			this.in = in;
+			this.buf = new byte[size];
+		}
+	}
+	
+	/**
+	 * Write a line through the direct buffer
+	 * 
+	 * @param ch output channel
+	 * @param line line, without end of line
+	 * @throws IOException 
+	 */
+	private void write(WritableByteChannel ch, byte[] line) throws IOException {
+		if (buf.remaining() < line.length + 1) {
+			flush(ch);
+		}
+		if (line.length < buf.capacity()) {
+			buf.put(line);
+		} else {
+			ByteBuffer big = ByteBuffer.wrap(line);
+			while (big.hasRemaining()) {
+				ch.write(big);
+			}
+		}
+		buf.put((byte) '\n');
+	}
+	
+	/**
+	 * Write the contents of the direct buffer to the channel
+	 * 
+	 * @param ch output channel
+	 * @throws IOException 
+	 */
+	private void flush(WritableByteChannel ch) throws IOException {
+		((Buffer) buf).flip();
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+		((Buffer) buf).clear();
+	}
+	
+	/**
+	 * Sort the lines in memory and write them without duplicates
+	 * 
+	 * @param ch output channel
+	 * @return number of lines written
+	 * @throws IOException 
+	 */
+	private long sortTo(WritableByteChannel ch) throws IOException {
+		Arrays.parallelSort(lines, 0, count, ExternalSorter::compare);
+		long n = 0;
+		byte[] prev = null;
+		for (int i = 0; i < count; i++) {
+			if (prev == null || compare(prev, lines[i]) != 0) {
+				write(ch, lines[i]);
+				n++;
+			}
+			prev = lines[i];
+		}
+		flush(ch);
+		Arrays.fill(lines, 0, count, null);
+		count = 0;
+		used = 0;
+		return n;
+	}
+	
+	/**
+	 * Sort the lines in memory and write them as a run to a temporary file
+	 * 
+	 * @throws IOException 
+	 */
+	private void spill() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		File run = File.createTempFile("sort", ".nt", tmpDir);
+		run.deleteOnExit();
+		try (FileChannel ch = FileChannel.open(run.toPath(), 
+											StandardOpenOption.WRITE)) {
+			sortTo(ch);
+		}
+		runs.add(run);
+	}
+	
+	/**
+	 * Add the triples of an N-Triples file, gzipped files are decompressed.
+	 * Empty lines and comments are skipped.
+	 * 
+	 * @param fin N-Triples file
+	 * @throws IOException 
+	 */
+	public void add(File fin) throws IOException {
+		try (LineReader in = new LineReader(Delta.open(fin), BUF_SIZE)) {
+			byte[] line;
+			while ((line = in.next()) != null) {
+				if (line.length == 0 || line[0] == '#') {
+					continue;
+				}
+				if (count == lines.length) {
+					lines = Arrays.copyOf(lines, count * 2);
+				}
+				lines[count++] = line;
+				used += line.length + LINE_OVERHEAD;
+				read++;
+				if (used > budget) {
+					spill();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A sorted run being merged
+	 */
+	private static class Run implements Comparable<Run> {
+		private final LineReader in;
+		private byte[] line;
+		
+		/**
+		 * Move to the next line
+		 * 
+		 * @return false at the end of the run
+		 * @throws IOException 
+		 */
+		private boolean next() throws IOException {
+			line = in.next();
+			return line != null;
+		}
+		
+		@Override
+		public int compareTo(Run o) {
+			return compare(line, o.line);
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param f file
+		 * @param size buffer size
+		 * @throws IOException 
+		 */
+		public Run(File f, int size) throws IOException {
+			this.in = new LineReader(new FileInputStream(f), size);
+		}
+	}
+	
+	/**
+	 * Merge the sorted runs, skipping duplicates, and write the result.
+	 * When nothing was written to temporary files, the lines are sorted
+	 * and written directly.
+	 * 
+	 * @param ch output channel
+	 * @return number of triples written
+	 * @throws IOException 
+	 */
+	public long merge(WritableByteChannel ch) throws IOException {
+		if (runs.isEmpty()) {
+			// everything fits in memory, no need for temporary files
+			long n = sortTo(ch);
+			LOG.log(Level.INFO, "Sorted {0} triples, {1} unique", new Object[] { read, n });
+			return n;
+		}
+		spill();
+		int size = Math.max(8192, (int) Math.min(BUF_SIZE, budget / (runs.size() + 1)));
+		
+		PriorityQueue<Run> queue = new PriorityQueue<>();
+		long n = 0;
+		try {
+			for (File f: runs) {
+				Run run = new Run(f, size);
+				if (run.next()) {
+					queue.add(run);
+				} else {
+					run.in.close();
+				}
+			}
+			byte[] prev = null;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				if (prev == null || compare(prev, run.line) != 0) {
+					write(ch, run.line);
+					n++;
+				}
+				prev = run.line;
+				if (run.next()) {
+					queue.add(run);
+				} else {
+					run.in.close();
+				}
+			}
+			flush(ch);
+		} finally {
+			for (Run run: queue) {
+				run.in.close();
+			}
+			for (File f: runs) {
+				Files.deleteIfExists(f.toPath());
+			}
+			runs.clear();
+		}
+		LOG.log(Level.INFO, "Sorted {0} triples, {1} unique", new Object[] { read, n });
+		return n;
+	}
+	
+	/**
+	 * Main
+	 * 
+	 * @param args 
+	 */
+	public static void main(String[] args) {
+		Map<String,String> opts = new HashMap<>();
+		List<String> files = Main.parseArgs(args, opts);
+		
+		if (files.size() < 2) {
+			System.err.println("Usage: [--memory=<MB>] "
+				+ "<N-Triples output file> <N-Triples input file>...");
+			System.exit(-1);
+		}
+		long memory = opts.containsKey("memory")
+					? Long.parseLong(opts.get("memory")) * 1024 * 1024
+					: Runtime.getRuntime().maxMemory() / 4;
+		File fout = new File(files.get(0));
+		
+		ExternalSorter sorter = new ExternalSorter(memory, fout.getAbsoluteFile().getParentFile());
+		try {
+			for (String f: files.subList(1, files.size())) {
+				sorter.add(new File(f));
+			}
+			try (FileChannel ch = FileChannel.open(fout.toPath(), 
+											StandardOpenOption.CREATE, 
+											StandardOpenOption.TRUNCATE_EXISTING,
+											StandardOpenOption.WRITE)) {
+				sorter.merge(ch);
+			}
+		} catch (IOException ex) {
+			LOG.severe("IO error processing");
+			System.exit(-3);
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param budget memory budget for the lines, in bytes
+	 * @param tmpDir directory for the temporary files, or null for the default
+	 */
+	public ExternalSorter(long budget, File tmpDir) {
+		this.budget = budget;
+		this.tmpDir = tmpDir;
+	}
+}
@@ -25,10 +25,332 @@
  */
 package be.fedict.lodtools.statsectors;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 /**
+ * Writer encoding to UTF-8 in direct buffers, which are written to the
+ * file by a separate I/O thread.
+ *
+ * The converting thread fills one buffer while the I/O thread drains 
+ * the others, so encoding and writing are done at the same time and a 
+ * slow disk or network volume does not stall the conversion until all 
+ * buffers are full.
+ * Already encoded bytes can be written through stream().
+ * Errors of the I/O thread are reported on the next write or on close.
  *
- * @author Bart.Hanssens
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
  */
-public class FileOutputstreamWriter {
+public class FileOutputstreamWriter extends Writer {
+	private final static Logger LOG = 
+					Logger.getLogger(FileOutputstreamWriter.class.getName());
+	
+	private final static int BUF_SIZE = 1024 * 1024;
+	private final static int BUFFERS = 4;
+	private final static ByteBuffer EOF = ByteBuffer.allocate(0);
+	
+	private final File file;
+	private final FileChannel channel;
+	private final boolean fsync;
+	private final Metrics metrics;
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+								.onMalformedInput(CodingErrorAction.REPLACE)
+								.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final Stream stream = new Stream();
+	private final Thread io;
+	private final long start = System.nanoTime();
+	
+	private ByteBuffer buf;
+	/* High surrogate at the end of the previous write, waiting for its pair */
+	private char high = 0;
+	private long waiting = 0;
+	private boolean closed = false;
+	
+	/* Updated by the I/O thread */
+	private volatile IOException error = null;
+	private volatile long written = 0;
+	
+	/**
+	 * Output stream for bytes that are already encoded
+	 */
+	public class Stream extends OutputStream {
+		/**
+		 * Get the writer of this stream
+		 * 
+		 * @return writer
+		 */
+		public FileOutputstreamWriter writer() {
+			return FileOutputstreamWriter.this;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (!buf.hasRemaining()) {
+				handOff();
+			}
+			buf.put((byte) b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!buf.hasRemaining()) {
+					handOff();
+				}
+				int n = Math.min(len, buf.remaining());
+				buf.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			FileOutputstreamWriter.this.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			FileOutputstreamWriter.this.close();
+		}
+	}
+	
+	/**
+	 * Drain the full buffers to the file, until the end marker
+	 */
+	private void drain() {
+		try {
+			ByteBuffer b;
+			while ((b = full.take()) != EOF) {
+				try {
+					if (error == null) {
+						while (b.hasRemaining()) {
+							written += channel.write(b);
+						}
+						if (metrics != null) {
+							metrics.count("bytes", b.limit());
+						}
+					}
+				} catch (IOException ioe) {
+					// keep taking buffers, so the writer does not block
+					error = ioe;
+				}
+				((Buffer) b).clear();
+				free.put(b);
+			}
+		} catch (InterruptedException ie) {
+			error = new InterruptedIOException("I/O thread interrupted");
+		}
+	}
+	
+	/**
+	 * Throw the error of the I/O thread, if any
+	 * 
+	 * @throws IOException 
+	 */
+	private void check() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+	}
+	
+	/**
+	 * Pass the current buffer to the I/O thread and take an empty one
+	 * 
+	 * @throws IOException 
+	 */
+	private void handOff() throws IOException {
+		check();
+		((Buffer) buf).flip();
+		long t0 = System.nanoTime();
+		try {
+			full.put(buf);
+			buf = free.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		waiting += System.nanoTime() - t0;
+	}
+	
+	/**
+	 * Encode characters into the current buffer
+	 * 
+	 * @param in characters
+	 * @throws IOException 
+	 */
+	private void encode(CharBuffer in) throws IOException {
+		while (encoder.encode(in, buf, false).isOverflow()) {
+			handOff();
+		}
+		if (in.hasRemaining()) {
+			high = in.get();
+		}
+	}
+	
+	@Override
+	public void write(int c) throws IOException {
+		if (c < 0x80 && high == 0 && buf.hasRemaining()) {
+			check();
+			buf.put((byte) c);
+		} else {
+			write(new char[] { (char) c }, 0, 1);
+		}
+	}
+	
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		check();
+		int end = off + len;
+		// most of the output is ASCII, which needs no encoder
+		if (high == 0) {
+			while (off < end) {
+				char c = str.charAt(off);
+				if (c >= 0x80) {
+					break;
+				}
+				if (!buf.hasRemaining()) {
+					handOff();
+				}
+				buf.put((byte) c);
+				off++;
+			}
+		}
+		if (off < end) {
+			write(str.toCharArray(), off, end - off);
+		}
+	}
+	
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		check();
+		if (len == 0) {
+			return;
+		}
+		if (high != 0) {
+			char[] pair = new char[] { high, cbuf[off] };
+			high = 0;
+			encode(CharBuffer.wrap(pair));
+			off++;
+			len--;
+		}
+		encode(CharBuffer.wrap(cbuf, off, len));
+	}
+	
+	/**
+	 * Get an output stream writing bytes to the same file, 
+	 * closing the stream also closes this writer.
+	 * 
+	 * @return output stream
+	 */
+	public Stream stream() {
+		return stream;
+	}
+	
+	/**
+	 * Get the number of bytes written to the file so far
+	 * 
+	 * @return number of bytes
+	 */
+	public long getWritten() {
+		return written;
+	}
+	
+	/**
+	 * Pass the buffered bytes to the I/O thread, without waiting
+	 * 
+	 * @throws IOException 
+	 */
+	@Override
+	public void flush() throws IOException {
+		check();
+		if (buf.position() > 0) {
+			handOff();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (buf.remaining() < 16) {
+				handOff();
+			}
+			// a lone high surrogate is replaced
+			encoder.encode(CharBuffer.wrap((high != 0) ? new char[] { high } 
+													: new char[0]), buf, true);
+			encoder.flush(buf);
+			flush();
+		} finally {
+			closed = true;
+			try {
+				full.put(EOF);
+				io.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				if (fsync && error == null && io.getState() == Thread.State.TERMINATED) {
+					channel.force(true);
+				}
+			} finally {
+				channel.close();
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		double mb = written / (1024.0 * 1024);
+		LOG.log(Level.INFO, "Wrote {0}: {1} MB in {2} s, {3} MB/s, waited {4} s for I/O",
+			new Object[] { file.getName(), String.format("%.1f", mb), 
+				String.format("%.3f", secs), String.format("%.1f", mb / secs),
+				String.format("%.3f", waiting / 1e9) });
+	}
 	
+	/**
+	 * Constructor
+	 * 
+	 * @param file output file
+	 * @param fsync true to force the contents to the storage device on close
+	 * @param metrics metrics to add the bytes written to, or null
+	 * @throws IOException 
+	 */
+	public FileOutputstreamWriter(File file, boolean fsync, Metrics metrics) 
+															throws IOException {
+		this.file = file;
+		this.fsync = fsync;
+		this.metrics = metrics;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		this.buf = ByteBuffer.allocateDirect(BUF_SIZE);
+		for (int i = 1; i < BUFFERS; i++) {
+			free.add(ByteBuffer.allocateDirect(BUF_SIZE));
+		}
+		this.io = new Thread(this::drain, "writer-" + file.getName());
+		this.io.setDaemon(true);
+		this.io.start();
+	}
 }
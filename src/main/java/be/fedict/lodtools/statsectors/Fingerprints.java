@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Fingerprints of the features of a shapefile, keyed on sector code.
+ *
+ * A fingerprint is a 64-bit hash of the projected attributes and the raw
+ * bytes of the geometry, so a feature with a different fingerprint will
+ * produce different triples.
+ * The options that change the output (e.g. number of decimals or CRS) are
+ * stored in the header: when these differ, all features are considered
+ * changed.
+ * The index is stored as a compact binary file next to the RDF output.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Fingerprints {
+	private final static String EXT = ".fp";
+	private final static int MAGIC = 0x53544650;
+	// version 2, with output options
+	private final static int MAGIC_OPTS = 0x53544632;
+	private final static HashFunction HASH = Hashing.murmur3_128();
+
+	private final SortedMap<String,Long> prints;
+	private final String options;
+
+	/**
+	 * Get the index file for an RDF output file
+	 *
+	 * @param fout RDF output file
+	 * @return index file
+	 */
+	public static File indexFile(File fout) {
+		return new File(fout.getParentFile(), fout.getName() + EXT);
+	}
+
+	/**
+	 * Calculate the fingerprint of the current record
+	 *
+	 * @param cursor cursor
+	 * @param cols bound projection
+	 * @param scratch reusable buffer for the geometry
+	 * @param res map to store the fingerprint in
+	 * @return buffer, possibly grown
+	 */
+	private static byte[] hash(MappedShapefile.Cursor cursor, Projection cols, 
+										byte[] scratch, Map<String,Long> res) {
+		Hasher h = HASH.newHasher();
+		for (int i = 0; i < cols.size(); i++) {
+			h.putUnencodedChars(cursor.text(cols.index(i)));
+			h.putChar('\0');
+		}
+		ByteBuffer shape = cursor.shapeBytes();
+		if (scratch.length < shape.remaining()) {
+			scratch = new byte[Math.max(shape.remaining(), scratch.length * 2)];
+		}
+		int len = shape.remaining();
+		shape.get(scratch, 0, len);
+		h.putBytes(scratch, 0, len);
+		
+		String key = cursor.text(cols.index(Main.COL_SECTOR)).toString();
+		res.put(key, h.hash().asLong());
+		return scratch;
+	}
+
+	/**
+	 * Calculate the fingerprints of all features, in parallel
+	 *
+	 * @param shp memory-mapped shapefile
+	 * @param cols bound projection
+	 * @param threads number of partitions
+	 * @param options output options
+	 * @return fingerprints
+	 */
+	public static Fingerprints compute(MappedShapefile shp, Projection cols, 
+												int threads, String options) {
+		Map<String,Long> res = new ConcurrentHashMap<>();
+		int[] starts = shp.index().split(threads * 4);
+		
+		IntStream.range(0, starts.length - 1).parallel().forEach(p -> {
+			MappedShapefile.Cursor cursor = shp.cursor();
+			byte[] scratch = new byte[64 * 1024];
+			cursor.goTo(starts[p]);
+			while (cursor.next() && cursor.record() < starts[p + 1]) {
+				if (!cursor.deleted()) {
+					scratch = hash(cursor, cols, scratch, res);
+				}
+			}
+		});
+		return new Fingerprints(new TreeMap<>(res), options);
+	}
+
+	/**
+	 * Read an index file.
+	 * Files without output options are read as having unknown options.
+	 *
+	 * @param f index file
+	 * @return fingerprints
+	 * @throws IOException
+	 */
+	public static Fingerprints read(File f) throws IOException {
+		SortedMap<String,Long> prints = new TreeMap<>();
+		String options;
+		try (DataInputStream in = new DataInputStream(
+						new BufferedInputStream(new FileInputStream(f)))) {
+			int magic = in.readInt();
+			if (magic != MAGIC && magic != MAGIC_OPTS) {
+				throw new IOException("Not a fingerprint index: " + f);
+			}
+			options = (magic == MAGIC_OPTS) ? in.readUTF() : null;
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				prints.put(in.readUTF(), in.readLong());
+			}
+		}
+		return new Fingerprints(prints, options);
+	}
+
+	/**
+	 * Write the index file, sorted on key
+	 *
+	 * @param f index file
+	 * @throws IOException
+	 */
+	public void write(File f) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(f)))) {
+			out.writeInt(MAGIC_OPTS);
+			out.writeUTF(options);
+			out.writeInt(prints.size());
+			for (Map.Entry<String,Long> e: prints.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Get the output options
+	 * 
+	 * @return options, or null when unknown
+	 */
+	public String getOptions() {
+		return options;
+	}
+	
+	/**
+	 * Get the keys that are new or have a different fingerprint.
+	 * When the output options differ, all keys are returned.
+	 *
+	 * @param other other (e.g. previous) fingerprints
+	 * @return set of keys
+	 */
+	public Set<String> changedSince(Fingerprints other) {
+		if (options == null || !options.equals(other.options)) {
+			return new HashSet<>(prints.keySet());
+		}
+		Set<String> keys = new HashSet<>();
+		for (Map.Entry<String,Long> e: prints.entrySet()) {
+			if (!e.getValue().equals(other.prints.get(e.getKey()))) {
+				keys.add(e.getKey());
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Get the number of fingerprints
+	 *
+	 * @return number of features
+	 */
+	public int size() {
+		return prints.size();
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param prints fingerprint per key
+	 * @param options output options, or null when unknown
+	 */
+	private Fingerprints(SortedMap<String,Long> prints, String options) {
+		this.prints = prints;
+		this.options = options;
+	}
+}
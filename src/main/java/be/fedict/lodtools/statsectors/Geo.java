@@ -25,20 +25,20 @@
  */
 package be.fedict.lodtools.statsectors;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+
+import com.google.common.net.UrlEscapers;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.MultiPolygon;
 
-import java.awt.Color;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.Resource;
@@ -49,41 +49,15 @@ import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
 
+import org.eclipse.rdf4j.model.vocabulary.GEO;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.sail.memory.MemoryStore;
-
-import org.geotools.data.shapefile.ShapefileDataStore;
-import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.data.store.ContentFeatureCollection;
-import org.geotools.data.store.ContentFeatureSource;
-import org.geotools.data.collection.ListFeatureCollection;
-import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.geometry.jts.JTSFactoryFinder;
-import org.geotools.kml.KML;
-import org.geotools.kml.KMLConfiguration;
-import org.geotools.map.FeatureLayer;
-import org.geotools.map.Layer;
-import org.geotools.map.MapContent;
-import org.geotools.referencing.CRS;
-import org.geotools.styling.FeatureTypeStyle;
-import org.geotools.styling.Fill;
-import org.geotools.styling.PolygonSymbolizer;
-import org.geotools.styling.Rule;
-import org.geotools.styling.Stroke;
-import org.geotools.styling.Style;
-import org.geotools.styling.StyleFactory;
-import org.geotools.swing.JMapFrame;
-import org.geotools.xml.Encoder;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
 
 import org.opengis.feature.Property;
-import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.FilterFactory;
 import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
 
@@ -117,18 +91,40 @@ public class Geo {
         "Reg_nl,Reg_fr,Nuts1,Nuts2,Nuts3_new,Gis_Perime,Gis_area_h,Cad_area_h";
     */
     private final static String NIS = "Nis_012011";
-    private final static String NUTS = "Nut1";
+    private final static String NUTS = "Nuts1";
     private final static String NUTS2 = "Nuts2";	
     private final static String NUTS3 = "Nuts3_new";
 	private final static String GEMEENTE = "Gemeente";
+	private final static String ARROND = "Arrond_nl";
+	private final static String PROV = "Prov_nl";
+	private final static String REG = "Reg_nl";
     private final static String SECTOR = "Cs012011";
     private final static String NAME_NL = "Sector_nl";
     private final static String NAME_FR = "Sector_fr";
     private final static String AREA = "Gis_area_h";
     private final static String PERIM = "Gis_Perime";
     
+	/* Triple indexes of the native store */
+	private final static String LOAD_INDEXES = "spoc";
+	private final static String QUERY_INDEXES = "spoc,posc";
+	
+	/* Administrative levels, from municipality to region */
+	private final static String[] LEVELS = 
+		{ "municipality", "arrondissement", "province", "region" };
     
 
+	/**
+	 * Get the IRI of an administrative unit
+	 * 
+	 * @param level administrative level
+	 * @param name dutch name of the unit
+	 * @return IRI
+	 */
+	static Resource makeUnitURL(String level, String name) {
+		return FAC.createIRI(PREFIX + level + "/" 
+						+ UrlEscapers.urlPathSegmentEscaper().escape(name) + "#id");
+	}
+	
     private static Resource makeURL(String part, Property prop) {
         return (prop != null) 
                 ? FAC.createIRI(part + prop.getValue().toString())
@@ -181,179 +177,126 @@ public class Geo {
    
 	
     /**
-     * Converts ShapeFile content to RDF triples.
+     * Converts the sectors to RDF triples, and union them into the 
+	 * administrative units.
+	 * The units of each level are passed to the RDF handler and written to
+	 * the KML file as soon as the level is unioned.
      * 
-     * @param store shapefile
-     * @param repo RDF repository
+     * @param table sectors
+     * @param handler RDF handler
+     * @param kml KML or KMZ output file, or null
      * @throws IOException
      */
-    private static void toRDF(ShapefileDataStore store, RepositoryConnection conn) throws IOException, FactoryException, TransformException {
-        ValueFactory vf = conn.getValueFactory();
-        
-		ListMultimap<String,Geometry> map = ArrayListMultimap.create();
+    private static void toRDF(SectorTable table, RDFHandler handler, 
+				File kml) throws IOException, FactoryException, TransformException {
+		Rollup rollup = new Rollup(new GeometryFactory(), table, 
+						table.municipality(), table.arrondissement(),
+						table.province(), table.region());
+		WktEncoder wkt = new WktEncoder(-1, 
+				Reprojection.get(Reprojection.LAMBERT72, Reprojection.LAMBERT72));
+		Reprojection toWGS = Reprojection.get(Reprojection.LAMBERT72, Reprojection.WGS84);
 		
-        ContentFeatureSource source = store.getFeatureSource();
-        ContentFeatureCollection features = source.getFeatures();
-        // Also needs the .SHX index file and .DBF database file
-        SimpleFeatureIterator iter = features.features();
-                    
-        while(iter.hasNext()) {
-            SimpleFeature feature = iter.next();
-
-            Resource r = makeURL(PREFIX, feature.getProperty(SECTOR));
-            if (r != null) {
-				System.out.println(feature.getProperty(NAME_NL).getValue());
-				MultiPolygon mp = (MultiPolygon) feature.getDefaultGeometryProperty().getValue();
-				String nuts3 = feature.getProperty(GEMEENTE).getValue().toString();
-				map.put(nuts3, mp);
-		
-//				System.out.println(type);
-				
-				//System.out.println(feature.getDefaultGeometryProperty().getType());				
-				/*Set<Object> keySet = feature.getDefaultGeometryProperty().getUserData().keySet();
-				for(Object key: keySet) {
-					System.out.println(key);
-				}*/
-				/*
-                add(r, "http://www.w3.org/1999/02/22-rdf-syntax-ns#type",
-                    "http://rdfdata.eionet.europa.eu/ramon/ontology/LAURegion");
-                add(r, SPATIAL_PP, "http://nuts.geovocab.org/id/", feature.getProperty(NUTS3));
-                add(r, RDFS_LABEL, feature.getProperty(NAME_NL), "nl");
-                add(r, RDFS_LABEL, feature.getProperty(NAME_FR), "fr");
-                add(r, feature.getProperty(AREA).toString(), "");
-                add(r, feature.getProperty(PERIM).toString(), "");
-                add(r, feature.getDefaultGeometryProperty().toString(), "");
-				*/
-            }
-
-//feature.getProperty("AREA"));
-			/*addLiteral(r, feature.getProperty(AREA));
-			addLiteral(r, feature.getProperty(PERIM));
-			addLiteral(r, feature.getDefaultGeometryProperty());*/
-        }
-		
-		CoordinateReferenceSystem WGS = CRS.decode("EPSG:4326",true);
-		CoordinateReferenceSystem lambert = CRS.decode("EPSG:31300",true);
-		MathTransform convertToMeter = CRS.findMathTransform(WGS, lambert,false);
-		MathTransform convertFromMeter = CRS.findMathTransform(lambert, WGS,false);
-
-		GeometryFactory factory = JTSFactoryFinder.getGeometryFactory( null );
-		Encoder enc = new Encoder(new KMLConfiguration());
-		FileOutputStream fos = new FileOutputStream("c:\\data\\out.kml");
-		enc.setIndenting(true);
-		
-		SimpleFeatureTypeBuilder sftBuilder = new SimpleFeatureTypeBuilder();
-		sftBuilder.setName("Simple");
-		sftBuilder.add("name", String.class);
-		sftBuilder.add("geom", Geometry.class);
-		SimpleFeatureType feature = sftBuilder.buildFeatureType();
-		ListFeatureCollection fc = new ListFeatureCollection(feature);
-			
-		 int i = 0;
-     // note the following geometry collection may be invalid (say with overlapping polygons)
-		for(String s: map.keySet()) {
-			List<Geometry> geoms = map.get(s);
-			Geometry geom = factory.buildGeometry(geoms).union();
-			Geometry target = JTS.transform(geom, convertFromMeter);
-		
-			SimpleFeatureBuilder builder = new SimpleFeatureBuilder(feature);
-			builder.set("name", s);
-			builder.set("geom", target);
-				
-			SimpleFeature simple = builder.buildFeature(s);
-			fc.add(simple);
-			
-		//	System.out.println(geom.toString());
-		//f (geom instanceof Polygon) {
-			//nc.encode(geom, KML.Polygon, fos);
-//			} else if (geom instanceof MultiPolygon) {
-//				enc.encode(geom, , fos);
-		//
-		//	System.out.println(s);
+		handler.startRDF();
+		for (int row = 0; row < table.size(); row++) {
+			Main.toRDF(handler, table.sector(row), table.nuts3().value(row),
+					table.nis().value(row), table.nameNl(row), table.nameFr(row), 
+					wkt.encode(table, row));
 		}
-		enc.encode(fc, KML.kml, fos);
-		fos.close();
-		
-		MapContent mapc = new MapContent();
-
-		Style style = createStyle();
-		style.featureTypeStyles();
-		Layer layer = new FeatureLayer(fc, style);
-		mapc.addLayer(layer);
-		
-		JMapFrame.showMap(mapc);
 		
+		// municipalities first, higher levels are built from the level below
+		try (KmlWriter w = (kml != null) ? new KmlWriter(kml) : null) {
+			rollup.union((level, l) -> {
+				for (Map.Entry<String,Geometry> e: level.entrySet()) {
+					Resource unit = makeUnitURL(LEVELS[l], e.getKey());
+					handler.handleStatement(FAC.createStatement(unit, RDFS.LABEL, 
+									FAC.createLiteral(e.getKey(), "nl")));
+					handler.handleStatement(FAC.createStatement(unit, GEO.AS_WKT,
+									FAC.createLiteral(wkt.encode(e.getValue()).toString(), 
+													GEO.WKT_LITERAL)));
+					if (w != null) {
+						try {
+							w.write(e.getKey(), LEVELS[l], toWGS.transform(e.getValue()));
+						} catch (IOException ioe) {
+							throw new UncheckedIOException(ioe);
+						} catch (TransformException te) {
+							throw new IllegalStateException(te);
+						}
+					}
+				}
+			});
+		} catch (UncheckedIOException ioe) {
+			throw ioe.getCause();
+		} catch (IllegalStateException ise) {
+			if (ise.getCause() instanceof TransformException) {
+				throw (TransformException) ise.getCause();
+			}
+			throw ise;
+		}
+		handler.endRDF();
 	}		
     
+	/**
+	 * Create a disk-based native repository
+	 * 
+	 * @param dir data directory
+	 * @param indexes triple indexes, e.g. "spoc,posc"
+	 * @return repository, not initialized
+	 */
+	private static Repository makeNative(File dir, String indexes) {
+		NativeStore sail = new NativeStore(dir, indexes);
+		sail.setForceSync(false);
+		return new SailRepository(sail);
+	}
 	
-	 private static Style createStyle() {
-		StyleFactory styleFactory = CommonFactoryFinder.getStyleFactory();
-		FilterFactory filterFactory = CommonFactoryFinder.getFilterFactory();
-
-        // create a partially opaque outline stroke
-        Stroke stroke = styleFactory.createStroke(
-                filterFactory.literal(Color.BLUE),
-                filterFactory.literal(1),
-                filterFactory.literal(0.5));
-
-        // create a partial opaque fill
-        Fill fill = styleFactory.createFill(
-                filterFactory.literal(Color.CYAN),
-                filterFactory.literal(0.5));
-
-        /*
-         * Setting the geometryPropertyName arg to null signals that we want to
-         * draw the default geomettry of features
-         */
-        PolygonSymbolizer sym = styleFactory.createPolygonSymbolizer(stroke, fill, null);
-
-        Rule rule = styleFactory.createRule();
-        rule.symbolizers().add(sym);
-        FeatureTypeStyle fts = styleFactory.createFeatureTypeStyle(new Rule[]{rule});
-        Style style = styleFactory.createStyle();
-        style.featureTypeStyles().add(fts);
-
-        return style;
-    }
     /**
      * Main
      * 
      * @param args 
      */
     public static void main(String[] args) throws FactoryException, TransformException {
-     /*   if (args.length != 2) {
-            System.err.println("Usage: <SHP input file> <RDF output file>");
+		Map<String,String> opts = new HashMap<>();
+		List<String> files = Main.parseArgs(args, opts);
+		
+        if (files.size() != 1) {
+            System.err.println("Usage: [--kml=<KML or KMZ file>] [--native=<directory>] "
+						+ "[--batch=<n>] [--indexes=<spoc,posc,...>] <SHP input file>");
             System.exit(-1);
         }
         
-        File fin = new File(args[0]);
-        File fout = new File(args[1]);
-        */
-		File fin = new File("C:\\Data\\statsector\\scbel01012011_gen13.shp");
+		File fin = new File(files.get(0));
+		File kml = opts.containsKey("kml") ? new File(opts.get("kml")) : null;
+		File dir = opts.containsKey("native") ? new File(opts.get("native")) : null;
+		int batch = Integer.parseInt(opts.getOrDefault("batch", "50000"));
+		String indexes = opts.getOrDefault("indexes", QUERY_INDEXES);
 		
-        Repository repo = new SailRepository(new MemoryStore());
+		// only maintain one index while loading, other indexes are built afterwards
+        Repository repo = (dir != null) 
+						? makeNative(dir, LOAD_INDEXES) 
+						: new SailRepository(new MemoryStore());
         repo.initialize();
         
         try (RepositoryConnection conn = repo.getConnection()) {
-			ShapefileDataStore store = new ShapefileDataStore(fin.toURI().toURL());
-            store.setCharset(StandardCharsets.UTF_8);
-            
-           toRDF(store, conn);
-        
-            store.dispose();
-           
-           /* BufferedOutputStream buf = new BufferedOutputStream(new FileOutputStream(fout));
-            RDFHandler handler = Rio.createWriter(RDFFormat.TURTLE, buf);
-            conn.export(handler);
-            */
-        } catch (MalformedURLException ex) {
-            LOG.severe("Could not open file");
-            System.exit(-2);
-        } catch (IOException ex) {
+			SectorTable table = 
+					new SectorTable(new MappedShapefile(fin, StandardCharsets.UTF_8));
+			LOG.log(Level.INFO, "Loaded {0} sectors, {1} coordinates, {2} MB", 
+				new Object[] { table.size(), table.coordinates(), 
+								table.memory() / (1024 * 1024) });
+			
+			toRDF(table, new BatchLoader(conn, batch), kml);
+        } catch (IOException|RDFHandlerException ex) {
             LOG.severe("IO error processing");
             System.exit(-3);
-        }
-        
-        repo.shutDown();
+        } finally {
+			repo.shutDown();
+		}
+		
+		if (dir != null && !indexes.equals(LOAD_INDEXES)) {
+			long start = System.nanoTime();
+			repo = makeNative(dir, indexes);
+			repo.initialize();
+			repo.shutDown();
+			LOG.log(Level.INFO, "Built indexes {0} in {1} s", 
+						new Object[] { indexes, (System.nanoTime() - start) / 1e9 });
+		}
     }
 }
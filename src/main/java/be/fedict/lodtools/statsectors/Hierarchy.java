@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.rio.RDFHandler;
+
+/**
+ * Parents of the sectors: municipalities, arrondissements, provinces, regions
+ * and NUTS1 to NUTS3 regions.
+ *
+ * The parents are taken from the DBF columns of the sectors, in the same pass
+ * as the sectors themselves.
+ * The codes of the parents already passed are kept per level, so the triples
+ * of each parent are only passed once. 
+ * With a few hundred parents in total, this is much smaller than keeping 
+ * the statements themselves.
+ * Not thread-safe.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Hierarchy {
+	/* Columns needed for the parents, in this order */
+	final static Projection COLUMNS = new Projection(
+		Main.GEMEENTE_NL, Main.GEMEENTE_FR, Main.ARROND_NL, Main.ARROND_FR, 
+		Main.PROV_NL, Main.PROV_FR, Main.REG_NL, Main.REG_FR, 
+		Main.NUTS2, Main.NUTS);
+	final static int COL_GEMEENTE_NL = 0;
+	final static int COL_GEMEENTE_FR = 1;
+	final static int COL_ARROND_NL = 2;
+	final static int COL_ARROND_FR = 3;
+	final static int COL_PROV_NL = 4;
+	final static int COL_PROV_FR = 5;
+	final static int COL_REG_NL = 6;
+	final static int COL_REG_FR = 7;
+	final static int COL_NUTS2 = 8;
+	final static int COL_NUTS1 = 9;
+	
+	/* Levels, from the municipality up */
+	final static int MUNICIPALITY = 0;
+	final static int ARRONDISSEMENT = 1;
+	final static int PROVINCE = 2;
+	final static int REGION = 3;
+	final static int NUTS3 = 4;
+	final static int NUTS2 = 5;
+	final static int NUTS1 = 6;
+	final static int LEVELS = 7;
+	
+	private final List<Set<String>> seen = new ArrayList<>(LEVELS);
+	
+	/**
+	 * Get the code of the parent of a sector on a level
+	 * 
+	 * @param level level
+	 * @param nis NIS code of the municipality
+	 * @param nuts3 NUTS3 code
+	 * @param row values of the projected columns
+	 * @return code or null when the sector has no parent on this level
+	 */
+	static String code(int level, String nis, String nuts3, String[] row) {
+		String code;
+		switch(level) {
+			case MUNICIPALITY: code = nis; break;
+			case ARRONDISSEMENT: code = row[COL_ARROND_NL]; break;
+			case PROVINCE: code = row[COL_PROV_NL]; break;
+			case REGION: code = row[COL_REG_NL]; break;
+			case NUTS3: code = nuts3; break;
+			case NUTS2: code = row[COL_NUTS2]; break;
+			case NUTS1: code = row[COL_NUTS1]; break;
+			default: throw new IllegalArgumentException("No such level " + level);
+		}
+		return (code != null && !code.isEmpty()) ? code : null;
+	}
+	
+	/**
+	 * Get the IRI of the arrondissement, province or region
+	 * 
+	 * @param level level
+	 * @param name dutch name
+	 * @return IRI or null
+	 */
+	private static Resource unit(int level, String name) {
+		if (name == null || name.isEmpty()) {
+			return null;
+		}
+		switch(level) {
+			case ARRONDISSEMENT: return Geo.makeUnitURL("arrondissement", name);
+			case PROVINCE: return Geo.makeUnitURL("province", name);
+			case REGION: return Geo.makeUnitURL("region", name);
+			default: throw new IllegalArgumentException("No unit on level " + level);
+		}
+	}
+	
+	/**
+	 * Pass the dutch and french label of a parent to the RDF handler
+	 * 
+	 * @param handler RDF handler
+	 * @param s subject
+	 * @param nl dutch name
+	 * @param fr french name
+	 * @return number of triples
+	 */
+	private static int labels(RDFHandler handler, Resource s, String nl, String fr) {
+		return Main.add(handler, s, RDFS.LABEL, Main.LABELS_NL.get(nl))
+			+ Main.add(handler, s, RDFS.LABEL, Main.LABELS_FR.get(fr));
+	}
+	
+	/**
+	 * Pass the triples of the parent on one level to the RDF handler.
+	 * Brussels has no province, so its arrondissement is part of the region.
+	 * 
+	 * @param handler RDF handler
+	 * @param level level
+	 * @param nis NIS code of the municipality
+	 * @param nuts3 NUTS3 code
+	 * @param row values of the projected columns
+	 * @return number of triples
+	 */
+	static int toRDF(RDFHandler handler, int level, String nis, String nuts3, 
+															String[] row) {
+		Resource s;
+		int n = 0;
+		switch(level) {
+			case MUNICIPALITY:
+				s = Main.NIS_IRIS.get(nis);
+				n += Main.add(handler, s, RDF.TYPE, Main.LAU_REG);
+				n += labels(handler, s, row[COL_GEMEENTE_NL], row[COL_GEMEENTE_FR]);
+				n += Main.add(handler, s, Main.SPATIAL_PP, 
+									unit(ARRONDISSEMENT, row[COL_ARROND_NL]));
+				n += Main.add(handler, s, Main.SPATIAL_PP, Main.NUTS_IRIS.get(nuts3));
+				break;
+			case ARRONDISSEMENT:
+				s = unit(ARRONDISSEMENT, row[COL_ARROND_NL]);
+				n += labels(handler, s, row[COL_ARROND_NL], row[COL_ARROND_FR]);
+				Resource up = unit(PROVINCE, row[COL_PROV_NL]);
+				n += Main.add(handler, s, Main.SPATIAL_PP, 
+							(up != null) ? up : unit(REGION, row[COL_REG_NL]));
+				break;
+			case PROVINCE:
+				s = unit(PROVINCE, row[COL_PROV_NL]);
+				n += labels(handler, s, row[COL_PROV_NL], row[COL_PROV_FR]);
+				n += Main.add(handler, s, Main.SPATIAL_PP, 
+										unit(REGION, row[COL_REG_NL]));
+				break;
+			case REGION:
+				s = unit(REGION, row[COL_REG_NL]);
+				n += labels(handler, s, row[COL_REG_NL], row[COL_REG_FR]);
+				break;
+			case NUTS3:
+				s = Main.NUTS_IRIS.get(nuts3);
+				n += Main.add(handler, s, RDF.TYPE, Main.NUTS_REG);
+				n += Main.add(handler, s, Main.SPATIAL_PP, 
+									Main.NUTS_IRIS.get(code(NUTS2, nis, nuts3, row)));
+				break;
+			case NUTS2:
+				s = Main.NUTS_IRIS.get(row[COL_NUTS2]);
+				n += Main.add(handler, s, RDF.TYPE, Main.NUTS_REG);
+				n += Main.add(handler, s, Main.SPATIAL_PP, 
+									Main.NUTS_IRIS.get(code(NUTS1, nis, nuts3, row)));
+				break;
+			case NUTS1:
+				s = Main.NUTS_IRIS.get(row[COL_NUTS1]);
+				n += Main.add(handler, s, RDF.TYPE, Main.NUTS_REG);
+				break;
+			default: 
+				throw new IllegalArgumentException("No such level " + level);
+		}
+		return n;
+	}
+
+	/**
+	 * Claim a parent: true the first time a code is claimed on a level
+	 * 
+	 * @param level level
+	 * @param code code, or null
+	 * @return true if not claimed before
+	 */
+	public boolean claim(int level, String code) {
+		return code != null && seen.get(level).add(code);
+	}
+	
+	/**
+	 * Pass the triples of the parents of a sector not passed before 
+	 * to the RDF handler
+	 * 
+	 * @param handler RDF handler
+	 * @param nis NIS code of the municipality
+	 * @param nuts3 NUTS3 code
+	 * @param row values of the projected columns
+	 * @return number of triples
+	 */
+	public int toRDF(RDFHandler handler, String nis, String nuts3, String[] row) {
+		int n = 0;
+		for (int l = 0; l < LEVELS; l++) {
+			if (claim(l, code(l, nis, nuts3, row))) {
+				n += toRDF(handler, l, nis, nuts3, row);
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Get the number of parents claimed
+	 * 
+	 * @return number of parents
+	 */
+	public int size() {
+		return seen.stream().mapToInt(Set::size).sum();
+	}
+
+	/**
+	 * Constructor
+	 */
+	public Hierarchy() {
+		for (int l = 0; l < LEVELS; l++) {
+			seen.add(new HashSet<>());
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streaming KML / KMZ writer.
+ *
+ * Every placemark is written as soon as it is added, so only one geometry
+ * has to be kept in memory.
+ * Files ending with .kmz are zipped, with the KML as single entry.
+ * Coordinates must be in WGS84, longitude first.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class KmlWriter implements Closeable {
+	private final static String HEADER = 
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+		+ "<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n<Document>\n";
+	private final static String FOOTER = "</Document>\n</kml>\n";
+	private final static String KMZ_ENTRY = "doc.kml";
+	
+	private final Writer w;
+	private final ZipOutputStream zip;
+	private final StringBuilder buf = new StringBuilder(64 * 1024);
+	
+	/**
+	 * Append text, escaping XML special characters
+	 * 
+	 * @param s text
+	 */
+	private void appendEscaped(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '<': buf.append("&lt;"); break;
+				case '>': buf.append("&gt;"); break;
+				case '&': buf.append("&amp;"); break;
+				case '"': buf.append("&quot;"); break;
+				default: buf.append(c);
+			}
+		}
+	}
+	
+	/**
+	 * Append a ring or line as list of coordinates
+	 * 
+	 * @param seq coordinate sequence
+	 */
+	private void appendCoords(CoordinateSequence seq) {
+		buf.append("<coordinates>");
+		for (int i = 0; i < seq.size(); i++) {
+			if (i > 0) {
+				buf.append(' ');
+			}
+			buf.append(seq.getX(i)).append(',').append(seq.getY(i));
+		}
+		buf.append("</coordinates>");
+	}
+	
+	/**
+	 * Append a linear ring
+	 * 
+	 * @param ring ring
+	 */
+	private void appendRing(LineString ring) {
+		buf.append("<LinearRing>");
+		appendCoords(ring.getCoordinateSequence());
+		buf.append("</LinearRing>");
+	}
+	
+	/**
+	 * Append a polygon, with its holes
+	 * 
+	 * @param p polygon
+	 */
+	private void appendPolygon(Polygon p) {
+		buf.append("<Polygon><outerBoundaryIs>");
+		appendRing(p.getExteriorRing());
+		buf.append("</outerBoundaryIs>");
+		for (int i = 0; i < p.getNumInteriorRing(); i++) {
+			buf.append("<innerBoundaryIs>");
+			appendRing(p.getInteriorRingN(i));
+			buf.append("</innerBoundaryIs>");
+		}
+		buf.append("</Polygon>");
+	}
+	
+	/**
+	 * Append a geometry, multi-geometries are written as MultiGeometry
+	 * 
+	 * @param g geometry
+	 */
+	private void appendGeometry(Geometry g) {
+		if (g instanceof Polygon) {
+			appendPolygon((Polygon) g);
+		} else if (g instanceof GeometryCollection) {
+			buf.append("<MultiGeometry>");
+			for (int i = 0; i < g.getNumGeometries(); i++) {
+				appendGeometry(g.getGeometryN(i));
+			}
+			buf.append("</MultiGeometry>");
+		} else if (g instanceof LineString) {
+			buf.append("<LineString>");
+			appendCoords(((LineString) g).getCoordinateSequence());
+			buf.append("</LineString>");
+		} else if (g instanceof Point) {
+			buf.append("<Point>");
+			appendCoords(((Point) g).getCoordinateSequence());
+			buf.append("</Point>");
+		}
+	}
+	
+	/**
+	 * Write a placemark
+	 * 
+	 * @param name name of the placemark
+	 * @param level administrative level, stored as extended data
+	 * @param geom geometry in WGS84
+	 * @throws IOException 
+	 */
+	public void write(String name, String level, Geometry geom) throws IOException {
+		buf.setLength(0);
+		buf.append("<Placemark><name>");
+		appendEscaped(name);
+		buf.append("</name><ExtendedData><Data name=\"level\"><value>");
+		appendEscaped(level);
+		buf.append("</value></Data></ExtendedData>");
+		appendGeometry(geom);
+		buf.append("</Placemark>\n");
+		w.append(buf);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		w.write(FOOTER);
+		if (zip != null) {
+			w.flush();
+			zip.closeEntry();
+		}
+		w.close();
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param f KML or KMZ file
+	 * @throws IOException 
+	 */
+	public KmlWriter(File f) throws IOException {
+		OutputStream out = Files.newOutputStream(f.toPath());
+		if (f.getName().toLowerCase().endsWith(".kmz")) {
+			zip = new ZipOutputStream(out);
+			zip.putNextEntry(new ZipEntry(KMZ_ENTRY));
+			out = zip;
+		} else {
+			zip = null;
+		}
+		w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 
+																64 * 1024);
+		w.write(HEADER);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.rio.RDFHandler;
+
+/**
+ * Lineage of the sectors across the census vintages.
+ *
+ * Each record of the 2011 shapefile also has the codes of the sector in
+ * 2001, 1991 and 1981. These are indexed in one pass, and used to link 
+ * the 2011 sectors to their older counterparts: with owl:sameAs when 
+ * the codes map one to one in both directions, with prov:wasDerivedFrom 
+ * otherwise.
+ * Splits (one older sector became several newer ones) and merges 
+ * (several older sectors became one) are reported for each pair of 
+ * consecutive vintages.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Lineage {
+	private final static ValueFactory FAC = SimpleValueFactory.getInstance();
+	
+	private final static IRI DERIVED = 
+				FAC.createIRI("http://www.w3.org/ns/prov#wasDerivedFrom");
+	
+	/* Vintages, newest first, with the IRI prefix and the column with 
+	   the codes of each vintage */
+	private final static int[] YEARS = { 2011, 2001, 1991, 1981 };
+	private final static String[] PREFIXES = { Main.PREF_NIS, 
+						Main.PREF_NIS_2001, Main.PREF_NIS_1991, Main.PREF_NIS_1981 };
+	private final static String[] COLUMNS = { Main.SECTOR, 
+						Main.SECTOR_2001, Main.SECTOR_1991, Main.SECTOR_1981 };
+	
+	/* Older code to 2011 codes, and back, per older vintage */
+	private final List<SetMultimap<String,String>> current = new ArrayList<>();
+	private final List<SetMultimap<String,String>> previous = new ArrayList<>();
+	/* Older code to newer code, and back, per pair of consecutive vintages */
+	private final List<SetMultimap<String,String>> forward = new ArrayList<>();
+	private final List<SetMultimap<String,String>> backward = new ArrayList<>();
+	
+	/**
+	 * Get a sorted copy of a set of codes
+	 * 
+	 * @param codes codes
+	 * @return sorted set
+	 */
+	private static Set<String> sorted(Set<String> codes) {
+		return new TreeSet<>(codes);
+	}
+	
+	/**
+	 * Pass the lineage links of the 2011 sectors to an RDF handler
+	 * 
+	 * @param handler RDF handler
+	 * @return number of triples
+	 */
+	public long toRDF(RDFHandler handler) {
+		long n = 0;
+		handler.startRDF();
+		for (int v = 1; v < YEARS.length; v++) {
+			SetMultimap<String,String> map = current.get(v - 1);
+			SetMultimap<String,String> back = previous.get(v - 1);
+			for (String old: sorted(map.keySet())) {
+				Set<String> news = map.get(old);
+				Resource o = Main.makeURL(PREFIXES[v], old);
+				for (String sector: sorted(news)) {
+					// the 2011 sector may be listed with other older codes too
+					IRI pred = (news.size() == 1 && back.get(sector).size() == 1) 
+								? OWL.SAMEAS : DERIVED;
+					handler.handleStatement(FAC.createStatement(
+								Main.makeURL(Main.PREF_NIS, sector), pred, o));
+					n++;
+				}
+			}
+		}
+		handler.endRDF();
+		return n;
+	}
+	
+	/**
+	 * Write one change to the report
+	 * 
+	 * @param w writer
+	 * @param v older vintage
+	 * @param kind split or merge
+	 * @param olds older codes
+	 * @param news newer codes
+	 * @throws IOException 
+	 */
+	private static void write(Writer w, int v, String kind, Set<String> olds, 
+									Set<String> news) throws IOException {
+		w.write(YEARS[v] + "," + YEARS[v - 1] + "," + kind + "," 
+			+ String.join(" ", sorted(olds)) + "," + String.join(" ", sorted(news)) + "\n");
+	}
+	
+	/**
+	 * Write the splits and merges between consecutive vintages as CSV:
+	 * older year, newer year, split or merge, older codes, newer codes
+	 * 
+	 * @param w writer
+	 * @return number of splits and merges
+	 * @throws IOException 
+	 */
+	public int report(Writer w) throws IOException {
+		int n = 0;
+		for (int v = 1; v < YEARS.length; v++) {
+			SetMultimap<String,String> fwd = forward.get(v - 1);
+			SetMultimap<String,String> bwd = backward.get(v - 1);
+			for (String old: sorted(fwd.keySet())) {
+				if (fwd.get(old).size() > 1) {
+					write(w, v, "split", Collections.singleton(old), fwd.get(old));
+					n++;
+				}
+			}
+			for (String nw: sorted(bwd.keySet())) {
+				if (bwd.get(nw).size() > 1) {
+					write(w, v, "merge", bwd.get(nw), Collections.singleton(nw));
+					n++;
+				}
+			}
+		}
+		w.flush();
+		return n;
+	}
+	
+	/**
+	 * Constructor, indexes the codes of all vintages in one pass
+	 * 
+	 * @param table sectors
+	 * @throws IOException when the codes of an older vintage are missing
+	 */
+	public Lineage(SectorTable table) throws IOException {
+		SectorTable.Column[] cols = { null, 
+			table.sector2001(), table.sector1991(), table.sector1981() };
+		for (int v = 1; v < YEARS.length; v++) {
+			if (cols[v].cardinality() == 1 && cols[v].decode(0).isEmpty()) {
+				throw new IOException("Column not found or empty: " + COLUMNS[v]);
+			}
+			current.add(HashMultimap.create());
+			previous.add(HashMultimap.create());
+			forward.add(HashMultimap.create());
+			backward.add(HashMultimap.create());
+		}
+		
+		String[] codes = new String[YEARS.length];
+		for (int row = 0; row < table.size(); row++) {
+			codes[0] = table.sector(row).trim();
+			for (int v = 1; v < YEARS.length; v++) {
+				codes[v] = cols[v].value(row).trim();
+			}
+			if (codes[0].isEmpty()) {
+				continue;
+			}
+			for (int v = 1; v < YEARS.length; v++) {
+				if (codes[v].isEmpty()) {
+					continue;
+				}
+				current.get(v - 1).put(codes[v], codes[0]);
+				previous.get(v - 1).put(codes[0], codes[v]);
+				if (!codes[v - 1].isEmpty()) {
+					forward.get(v - 1).put(codes[v], codes[v - 1]);
+					backward.get(v - 1).put(codes[v - 1], codes[v]);
+				}
+			}
+		}
+	}
+}
@@ -28,40 +28,61 @@ package be.fedict.lodtools.statsectors;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.ObjectArrays;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.MultiPolygon;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geotools.data.Query;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.store.ContentFeatureCollection;
 import org.geotools.data.store.ContentFeatureSource;
 import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.FactoryException;
 
 import org.eclipse.rdf4j.model.IRI;
-import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
-import org.eclipse.rdf4j.model.impl.LinkedHashModel;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.GEO;
 import org.eclipse.rdf4j.model.vocabulary.OWL;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.rio.RDFHandler;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.Rio;
 
 
@@ -73,11 +94,13 @@ import org.eclipse.rdf4j.rio.Rio;
 public class Main {
     private final static Logger LOG = Logger.getLogger(Main.class.getName());
     
-	private final static Model MODEL = new LinkedHashModel();
     private final static ValueFactory FAC = SimpleValueFactory.getInstance();
     
 	/* Prefixes */
-	private final static String PREF_NIS = "http://geo.belgif.org/nis2011/";
+	final static String PREF_NIS = "http://geo.belgif.org/nis2011/";
+	final static String PREF_NIS_2001 = "http://geo.belgif.org/nis2001/";
+	final static String PREF_NIS_1991 = "http://geo.belgif.org/nis1991/";
+	final static String PREF_NIS_1981 = "http://geo.belgif.org/nis1981/";
 	private final static String PREF_NUTS = "http://nuts.geovocab.org/id/";
 	
 	/* Name spaces */
@@ -85,9 +108,10 @@ public class Main {
     private final static String NS_SPATIAL = "http://geovocab.org/spatial#";
     
 	/* Properties */
-    private final static IRI SPATIAL_PP = FAC.createIRI(NS_SPATIAL + "PP");
-	private final static IRI LAU_REG = FAC.createIRI(NS_RAMON + "LAURegion");
-	private final static IRI NUTS_REG = FAC.createIRI(NS_RAMON + "NUTSRegion");
+    final static IRI SPATIAL_PP = FAC.createIRI(NS_SPATIAL + "PP");
+	private final static IRI SPATIAL_EC = FAC.createIRI(NS_SPATIAL + "EC");
+	final static IRI LAU_REG = FAC.createIRI(NS_RAMON + "LAURegion");
+	final static IRI NUTS_REG = FAC.createIRI(NS_RAMON + "NUTSRegion");
 	
 
     /* Properties in Shapefile
@@ -96,17 +120,57 @@ public class Main {
         "Sector_nl,Sector_fr,Gemeente,Commune,Arrond_nl,Arrond_fr,Prov_nl,Prov_fr,"
         "Reg_nl,Reg_fr,Nuts1,Nuts2,Nuts3_new,Gis_Perime,Gis_area_h,Cad_area_h";
     */
-    private final static String NIS = "Nis_012011";
-    private final static String NUTS = "Nut1";
-    private final static String NUTS2 = "Nuts2";	
-    private final static String NUTS3 = "Nuts3_new";
-	private final static String GEMEENTE_NL = "Gemeente";
-	private final static String GEMEENTE_FR = "Commune";
-    private final static String SECTOR = "Cs012011";
-    private final static String NAME_NL = "Sector_nl";
-    private final static String NAME_FR = "Sector_fr";
+    final static String NIS = "Nis_012011";
+    final static String NUTS = "Nuts1";
+    final static String NUTS2 = "Nuts2";	
+    final static String NUTS3 = "Nuts3_new";
+	final static String GEMEENTE_NL = "Gemeente";
+	final static String GEMEENTE_FR = "Commune";
+	final static String ARROND_NL = "Arrond_nl";
+	final static String ARROND_FR = "Arrond_fr";
+	final static String PROV_NL = "Prov_nl";
+	final static String PROV_FR = "Prov_fr";
+	final static String REG_NL = "Reg_nl";
+	final static String REG_FR = "Reg_fr";
+    final static String SECTOR = "Cs012011";
+	final static String SECTOR_2001 = "CS102001";
+	final static String SECTOR_1991 = "CS031991";
+	final static String SECTOR_1981 = "CS031981";
+    final static String NAME_NL = "Sector_nl";
+    final static String NAME_FR = "Sector_fr";
     private final static String AREA = "Gis_area_h";
     private final static String PERIM = "Gis_Perime";
+	
+	/* Columns needed for the sectors, in this order */
+	final static Projection COLUMNS = 
+			new Projection(SECTOR, NUTS3, NIS, NAME_NL, NAME_FR);
+	final static int COL_SECTOR = 0;
+	final static int COL_NUTS3 = 1;
+	final static int COL_NIS = 2;
+	final static int COL_NAME_NL = 3;
+	final static int COL_NAME_FR = 4;
+	
+	/* Values shared by many sectors */
+	final static ValueCache<IRI> NUTS_IRIS = new ValueCache<>("NUTS3 IRI",
+			1_000, raw -> FAC.createIRI(PREF_NUTS + raw + "#id"));
+	final static ValueCache<IRI> NIS_IRIS = new ValueCache<>("NIS IRI",
+			5_000, raw -> FAC.createIRI(PREF_NIS + raw.replace(".0", "") + "#id"));
+	final static ValueCache<Literal> LABELS_NL = new ValueCache<>("Label nl",
+			50_000, raw -> FAC.createLiteral(raw, "nl"));
+	final static ValueCache<Literal> LABELS_FR = new ValueCache<>("Label fr",
+			50_000, raw -> FAC.createLiteral(raw, "fr"));
+	
+	/* Time per stage and counters of the run */
+	final static Metrics METRICS = new Metrics();
+	
+	/* Options that change the triples, the parent options only with --infer */
+	private final static String[] OUTPUT_OPTIONS = 
+		{ "decimals", "wgs84", "epsg", "hierarchy" };
+	private final static String[] INFER_OPTIONS = 
+		{ "validate", "parents", "parents-column" };
+	/* Options with a stage working on all sectors, sharing one sector table */
+	final static String[] TABLE_OPTIONS = 
+		{ "validate", "simplify", "lineage", "adjacency" };
     
 
 	/**
@@ -115,101 +179,879 @@ public class Main {
 	 * @param prop
 	 * @return 
 	 */
-    private static Resource makeURL(String part, String prop) {
+    static Resource makeURL(String part, String prop) {
         return (prop != null) ? FAC.createIRI(part + prop + "#id") : null;
     }
 
+	/**
+	 * Pass a triple to the RDF handler, skipping incomplete triples
+	 * 
+	 * @param handler RDF handler
+	 * @param s subject
+	 * @param p predicate
+	 * @param o object
+	 * @return number of triples passed, 0 or 1
+	 */
+	static int add(RDFHandler handler, Resource s, IRI p, Value o) {
+		if (s != null && p != null && o != null) {
+			handler.handleStatement(FAC.createStatement(s, p, o));
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Pass the triples of one statistical sector to the RDF handler
+	 * 
+	 * @param handler RDF handler
+	 * @param sector sector code
+	 * @param nuts3 NUTS3 code
+	 * @param nis NIS code of the municipality
+	 * @param nameNl dutch name
+	 * @param nameFr french name
+	 * @param wkt encoder holding the geometry as WKT
+	 * @return number of triples
+	 */
+	static int toRDF(RDFHandler handler, String sector, String nuts3, 
+					String nis, String nameNl, String nameFr, WktEncoder wkt) {
+		Resource sect = makeURL(PREF_NIS, sector);
+		if (sect == null) {
+			return 0;
+		}
+		int n = add(handler, sect, RDF.TYPE, LAU_REG);
+		n += add(handler, sect, SPATIAL_PP, NUTS_IRIS.get(nuts3));
+		n += add(handler, sect, SPATIAL_PP, NIS_IRIS.get(nis));
+		n += add(handler, sect, RDFS.LABEL, LABELS_NL.get(nameNl));
+		n += add(handler, sect, RDFS.LABEL, LABELS_FR.get(nameFr));
+		if (handler instanceof WktNTriplesWriter) {
+			((WktNTriplesWriter) handler).handleWkt(sect, GEO.AS_WKT, wkt);
+			n++;
+		} else {
+			n += add(handler, sect, GEO.AS_WKT, 
+					FAC.createLiteral(wkt.toString(), GEO.WKT_LITERAL));
+		}
+		return n;
+	}
+
+	/**
+	 * Get the parent of a sector, as inferred from the geometry if available
+	 * 
+	 * @param parents verified parents, or null
+	 * @param sector sector code
+	 * @param col projected column of the parent code
+	 * @param claimed parent code in the DBF
+	 * @return parent code
+	 */
+	static String parent(ParentCheck parents, String sector, int col, String claimed) {
+		return (parents != null) ? parents.parent(sector, col, claimed) : claimed;
+	}
+	
 	/**
 	 * Get string value from geo feature
 	 * 
-	 * @param feat
-	 * @param name
+	 * @param feat feature
+	 * @param cols bound projection
+	 * @param col position in the projection
 	 * @return 
 	 */
-	private static String makeStr(SimpleFeature feat, String name) {
-		return feat.getProperty(name).getValue().toString();
+	static String makeStr(SimpleFeature feat, Projection cols, int col) {
+		return feat.getAttribute(cols.index(col)).toString();
 	}
 	
 	/**
-	 * Get string value from default geo
+	 * Encode default geo as WKT
 	 * 
 	 * @param feat
-	 * @return 
+	 * @param wkt WKT encoder
+	 * @return encoder
 	 */
-	private static String makeStrGeo(SimpleFeature feat) {
-		return feat.getDefaultGeometryProperty().getValue().toString();
+	static WktEncoder makeGeo(SimpleFeature feat, WktEncoder wkt) {
+		return wkt.encode((Geometry) feat.getDefaultGeometry());
 	}
 			
     /**
      * Converts ShapeFile content to RdfConverter triples.
+     * Statements are streamed to the handler feature by feature,
+     * nothing is kept in memory.
+	 * Only the projected columns are read from the DBF.
+	 * Time spent reading, encoding WKT and emitting triples is added to
+	 * the metrics.
      * 
      * @param store shapefile
+     * @param handler RDF handler
+	 * @param wkt WKT encoder
+	 * @param parents parents inferred from the geometry, or null
+	 * @param hierarchy parents already passed, or null to skip the parents
+	 * @param metrics metrics of the conversion
      * @throws IOException
      */
-    private static void toRDF(ShapefileDataStore store) throws IOException {
-        //ListMultimap<String,Geometry> map = ArrayListMultimap.create();
-		
+    private static void toRDF(ShapefileDataStore store, RDFHandler handler,
+					WktEncoder wkt, ParentCheck parents, Hierarchy hierarchy,
+									Metrics metrics) throws IOException {
         ContentFeatureSource source = store.getFeatureSource();
-        ContentFeatureCollection features = source.getFeatures();
+		SimpleFeatureType schema = source.getSchema();
+		
+		List<String> names = new ArrayList<>(Arrays.asList(COLUMNS.names()));
+		if (hierarchy != null) {
+			names.addAll(Arrays.asList(Hierarchy.COLUMNS.names()));
+		}
+		names.add(schema.getGeometryDescriptor().getLocalName());
+		String[] props = names.toArray(new String[names.size()]);
+		
+		// fail fast on missing columns, before reading any feature
+		COLUMNS.bind(schema);
+		if (hierarchy != null) {
+			Hierarchy.COLUMNS.bind(schema);
+		}
+		
+		Query query = new Query(schema.getTypeName(), Filter.INCLUDE, props);
+        ContentFeatureCollection features = source.getFeatures(query);
+		Projection cols = COLUMNS.bind(features.getSchema());
+		Projection hcols = (hierarchy != null) 
+					? Hierarchy.COLUMNS.bind(features.getSchema()) : null;
+		String[] row = (hcols != null) ? new String[hcols.size()] : null;
         
         // Also needs the .SHX index file and .DBF database file
         SimpleFeatureIterator iter = features.features();
         
-		/* Generate sectors */
-        while(iter.hasNext()) {
-            SimpleFeature feature = iter.next();
+		long read = 0, encode = 0, emit = 0;
+		long feats = 0, triples = 0;
+		
+		handler.startRDF();
+		try {
+			/* Generate sectors */
+			while(iter.hasNext()) {
+				long t0 = System.nanoTime();
+				SimpleFeature feature = iter.next();
+				long t1 = System.nanoTime();
+				makeGeo(feature, wkt);
+				long t2 = System.nanoTime();
+				String sector = makeStr(feature, cols, COL_SECTOR);
+				String nuts3 = parent(parents, sector, COL_NUTS3, 
+										makeStr(feature, cols, COL_NUTS3));
+				String nis = parent(parents, sector, COL_NIS, 
+										makeStr(feature, cols, COL_NIS));
+				triples += toRDF(handler, sector, nuts3, nis, 
+					makeStr(feature, cols, COL_NAME_NL),
+					makeStr(feature, cols, COL_NAME_FR), wkt);
+				metrics.firstTriple();
+				if (hierarchy != null) {
+					for (int i = 0; i < row.length; i++) {
+						row[i] = makeStr(feature, hcols, i);
+					}
+					triples += hierarchy.toRDF(handler, nis, nuts3, row);
+				}
+				long t3 = System.nanoTime();
+				read += t1 - t0;
+				encode += t2 - t1;
+				emit += t3 - t2;
+				feats++;
+			}
+		} finally {
+			iter.close();
+		}
+		handler.endRDF();
+		
+		metrics.time("read", read);
+		metrics.time("wkt", encode);
+		metrics.time("emit", emit);
+		metrics.count("features", feats);
+		metrics.count("triples", triples);
+	}
+
+	/**
+	 * Get the name of an output file derived from the main output file,
+	 * e.g. for a simplification level
+	 * 
+	 * @param fout main output file
+	 * @param suffix suffix, e.g. tolerance
+	 * @return file
+	 */
+	private static File derivedFile(File fout, String suffix) {
+		String name = fout.getName();
+		// keep .gz as part of the extension
+		String gz = name.endsWith(".gz") ? ".gz" : "";
+		name = name.substring(0, name.length() - gz.length());
+		int dot = name.lastIndexOf('.');
+		String base = (dot > 0) ? name.substring(0, dot) : name;
+		String ext = (dot > 0) ? name.substring(dot) : "";
+		return new File(fout.getParentFile(), base + "_" + suffix + ext + gz);
+	}
+	
+	/**
+	 * Write the simplified geometries of the sectors for one tolerance
+	 * 
+	 * @param table sectors
+	 * @param simplifier simplifier
+	 * @param tol tolerance
+	 * @param fout output file
+	 * @param decimals maximum number of decimals in WKT
+	 * @param proj reprojection of the coordinates
+	 * @param gzip true to compress
+	 * @param metrics metrics of the conversion
+	 * @throws IOException 
+	 */
+	private static void writeLevel(SectorTable table, CoverageSimplifier simplifier, 
+						double tol, File fout, int decimals, Reprojection proj, 
+							boolean gzip, Metrics metrics) throws IOException {
+		boolean[] keep = simplifier.simplify(tol);
+		LOG.log(Level.INFO, "Tolerance {0}: {1} vertices", 
+					new Object[] { tol, CoverageSimplifier.count(keep) });
+
+		WktEncoder wkt = new WktEncoder(decimals, proj);
+		try (Writer w = makeWriter(
+				makeOutput(fout, gzip, metrics))) {
+			WktNTriplesWriter writer = new WktNTriplesWriter(w);
+			writer.startRDF();
+			
+			for (int row = 0; row < table.size(); row++) {
+				Resource sect = makeURL(PREF_NIS, table.sector(row));
+				writer.handleWkt(sect, GEO.AS_WKT, 
+								wkt.encode(simplifier.geometry(row, keep)));
+			}
+			writer.endRDF();
+		}
+	}
+	
+	/**
+	 * Write simplified geometries of the sectors, one file per tolerance.
+	 * Borders shared by neighbouring sectors are simplified in the same way.
+	 * 
+	 * @param table sectors
+	 * @param fout main output file, used for the names of the other files
+	 * @param tolerances comma-separated list of tolerances
+	 * @param decimals maximum number of decimals in WKT
+	 * @param proj reprojection of the coordinates
+	 * @param gzip true to compress
+	 * @param metrics metrics of the conversion
+	 * @throws IOException 
+	 */
+	private static void simplify(SectorTable table, File fout, String tolerances, 
+			int decimals, Reprojection proj, boolean gzip, Metrics metrics) 
+														throws IOException {
+		CoverageSimplifier simplifier = new CoverageSimplifier(table);
+		LOG.log(Level.INFO, "Simplifying {0} arcs, {1} vertices inserted at T-junctions", 
+					new Object[] { simplifier.arcs(), simplifier.junctions() });
 
-            Resource sect = makeURL(PREF_NIS, makeStr(feature, SECTOR));
-            if (sect != null) {
-				//MultiPolygon mp = (MultiPolygon) feature.getDefaultGeometryProperty().getValue();
-				//String nuts3 = feature.getProperty(GEMEENTE).getValue().toString();
-				//map.put(nuts3, mp);
-				MODEL.add(sect, RDF.TYPE, LAU_REG);
-                MODEL.add(sect, SPATIAL_PP, makeURL(PREF_NUTS, makeStr(feature, NUTS3)));
-				MODEL.add(sect, SPATIAL_PP, makeURL(PREF_NIS, makeStr(feature, NIS).replace(".0", "")));
-                MODEL.add(sect, RDFS.LABEL, 
-						FAC.createLiteral(makeStr(feature, NAME_NL), "nl"));
-                MODEL.add(sect, RDFS.LABEL, 
-						FAC.createLiteral(makeStr(feature, NAME_FR), "fr"));
-				MODEL.add(sect, GEO.AS_WKT, 
-						FAC.createLiteral(makeStrGeo(feature), GEO.WKT_LITERAL));
+		try {
+			Arrays.stream(tolerances.split(",")).parallel().forEach(tol -> {
+				try {
+					writeLevel(table, simplifier, Double.parseDouble(tol), 
+						derivedFile(fout, tol.trim()), decimals, proj, gzip, metrics);
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			});
+		} catch (UncheckedIOException ioe) {
+			throw ioe.getCause();
+		}
+	}
+	
+	/**
+	 * Write the neighbours of each sector, as symmetric spatial:EC triples
+	 * 
+	 * @param table sectors
+	 * @param fout main output file, used for the name of the adjacency file
+	 * @param threads number of threads
+	 * @param tolerance overlap still accepted, as a fraction of the smallest area
+	 * @param gzip true to compress
+	 * @param metrics metrics of the conversion
+	 * @throws IOException 
+	 */
+	private static void adjacency(SectorTable table, File fout, int threads, 
+		double tolerance, boolean gzip, Metrics metrics) throws IOException {
+		Adjacency adj = new Adjacency(table, tolerance);
+		try {
+			adj.compute(threads);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ie);
+		} catch (ExecutionException ee) {
+			throw new IOException(ee);
+		}
+		File report = new File(fout.getPath() + ".adjacency.csv");
+		try (Writer w = new OutputStreamWriter(
+							new FileOutputStream(report), Charsets.UTF_8)) {
+			adj.report(w);
+		}
+		if (adj.slivers() > 0) {
+			LOG.log(Level.INFO, "{0} pairs of neighbours with a sliver overlap", 
+																adj.slivers());
+		}
+		if (adj.overlaps() > 0) {
+			LOG.log(Level.WARNING, "{0} pairs of overlapping sectors, see {1}", 
+										new Object[] { adj.overlaps(), report });
+		}
+		
+		File fadj = derivedFile(fout, "adjacency");
+		long n = 0;
+		try (Writer w = makeWriter(
+				makeOutput(fadj, gzip, metrics))) {
+			RDFHandler writer = new WktNTriplesWriter(w);
+			writer.startRDF();
+			for (int i = 0; i < adj.size(); i++) {
+				Resource sect = makeURL(PREF_NIS, adj.sector(i));
+				for (int j: adj.neighboursOf(i)) {
+					n += add(writer, sect, SPATIAL_EC, makeURL(PREF_NIS, adj.sector(j)));
+				}
+			}
+			writer.endRDF();
+		}
+		LOG.log(Level.INFO, "Adjacency: {0} triples", n);
+	}
+	
+	/**
+	 * Sort the N-Triples output file and remove duplicate triples
+	 * 
+	 * @param fout N-Triples output file
+	 * @param gzip true if the file is compressed
+	 * @param memory memory budget in bytes
+	 * @param metrics metrics of the conversion
+	 * @throws IOException 
+	 */
+	private static void sort(File fout, boolean gzip, long memory, Metrics metrics) 
+														throws IOException {
+		File dir = fout.getAbsoluteFile().getParentFile();
+		File tmp = new File(dir, fout.getName() + ".sorting");
+		
+		ExternalSorter sorter = new ExternalSorter(memory, dir);
+		sorter.add(fout);
+		try (WritableByteChannel ch = gzip 
+				? Channels.newChannel(makeOutput(tmp, true, metrics))
+				: FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, 
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			sorter.merge(ch);
+		}
+		Files.move(tmp.toPath(), fout.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Write the links between the 2011 sectors and the sectors of older
+	 * censuses, and report the splits and merges to a CSV file
+	 * 
+	 * @param table sectors
+	 * @param fout main output file, used for the names of the other files
+	 * @param gzip true to compress
+	 * @param metrics metrics of the conversion
+	 * @throws IOException 
+	 */
+	private static void lineage(SectorTable table, File fout, boolean gzip, 
+										Metrics metrics) throws IOException {
+		Lineage lineage = new Lineage(table);
+		
+		File flin = derivedFile(fout, "lineage");
+		long n;
+		try (Writer w = makeWriter(
+				makeOutput(flin, gzip, metrics))) {
+			n = lineage.toRDF(new WktNTriplesWriter(w));
+		}
+		File report = new File(fout.getPath() + ".lineage.csv");
+		int changes;
+		try (Writer w = new OutputStreamWriter(
+							new FileOutputStream(report), Charsets.UTF_8)) {
+			changes = lineage.report(w);
+		}
+		LOG.log(Level.INFO, "Lineage: {0} triples, {1} splits and merges, see {2}", 
+										new Object[] { n, changes, report });
+	}
+	
+	/**
+	 * Verify the parents (municipality or NUTS3) of the sectors against the
+	 * geometry, and write the mismatches to a CSV file next to the output
+	 * 
+	 * @param table sectors
+	 * @param fout RDF output file
+	 * @param opts options
+	 * @param threads number of threads
+	 * @return result
+	 * @throws IOException 
+	 */
+	private static ParentCheck validate(SectorTable table, File fout, 
+						Map<String,String> opts, int threads) throws IOException {
+		int link = "nuts3".equals(opts.get("validate")) ? COL_NUTS3 : COL_NIS;
+		
+		ParentCheck check;
+		if (opts.containsKey("parents")) {
+			MappedShapefile parents = 
+					new MappedShapefile(new File(opts.get("parents")), Charsets.UTF_8);
+			String column = opts.getOrDefault("parents-column", COLUMNS.names()[link]);
+			check = ParentCheck.againstLayer(table, link, parents, column, threads);
+		} else {
+			check = ParentCheck.againstUnions(table, link, threads);
+		}
+		
+		File report = new File(fout.getPath() + ".validation.csv");
+		try (Writer w = new OutputStreamWriter(
+							new FileOutputStream(report), Charsets.UTF_8)) {
+			check.write(w);
+		}
+		if (check.size() > 0) {
+			LOG.log(Level.WARNING, "{0} sectors with wrong {1}, see {2}", 
+				new Object[] { check.size(), COLUMNS.names()[link], report });
+		}
+		return check;
+	}
+	
+	/**
+	 * Get the options that change the triples, as one string
+	 * 
+	 * @param opts options
+	 * @return options that change the output
+	 */
+	static String outputOptions(Map<String,String> opts) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("decimals=").append(opts.getOrDefault("decimals", "-1"));
+		for (String opt: OUTPUT_OPTIONS) {
+			if (opts.containsKey(opt) && !opt.equals("decimals")) {
+				sb.append(' ').append(opt).append('=').append(opts.get(opt));
+			}
+		}
+		if (opts.containsKey("validate") && opts.containsKey("infer")) {
+			sb.append(" infer");
+			for (String opt: INFER_OPTIONS) {
+				sb.append(' ').append(opt).append('=').append(opts.get(opt));
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Calculate the fingerprints of the sectors, and store them next to 
+	 * the RDF output file
+	 * 
+	 * @param fin shapefile
+	 * @param fout RDF output file
+	 * @param threads number of threads
+	 * @param options options that change the output
+	 * @param hierarchy true to include the columns of the parents
+	 * @return fingerprints
+	 * @throws IOException 
+	 */
+	private static Fingerprints fingerprints(File fin, File fout, int threads,
+					String options, boolean hierarchy) throws IOException {
+		MappedShapefile shp = new MappedShapefile(fin, Charsets.UTF_8);
+		Projection cols = hierarchy
+			? new Projection(ObjectArrays.concat(COLUMNS.names(), 
+									Hierarchy.COLUMNS.names(), String.class))
+			: COLUMNS;
+		Fingerprints prints = Fingerprints.compute(shp, cols.bind(shp), 
+															threads, options);
+		prints.write(Fingerprints.indexFile(fout));
+		return prints;
+	}
+	
+	/**
+	 * Get the subjects of a set of sectors
+	 * 
+	 * @param sectors sector codes
+	 * @return set of IRIs
+	 */
+	private static Set<String> subjects(Set<String> sectors) {
+		Set<String> subjects = new HashSet<>();
+		for (String sector: sectors) {
+			subjects.add(makeURL(PREF_NIS, sector).stringValue());
+		}
+		return subjects;
+	}
+	
+	/**
+	 * Write the triples that were removed and added since a previous output,
+	 * using the fingerprint index of the previous output.
+	 * A changed sector is removed completely and added again, and so are
+	 * its parents (when present in the output).
+	 * 
+	 * @param prev previous RDF output file
+	 * @param fout new RDF output file
+	 * @param prints fingerprints of the new shapefile
+	 * @param gzip true to compress
+	 * @param metrics metrics of the conversion
+	 * @throws IOException 
+	 */
+	private static void delta(File prev, File fout, Fingerprints prints, 
+						boolean gzip, Metrics metrics) throws IOException {
+		File index = Fingerprints.indexFile(prev);
+		if (!index.exists()) {
+			throw new IOException("No fingerprints of the previous output, "
+						+ "it must be converted with --fingerprints: " + index);
+		}
+		Fingerprints old = Fingerprints.read(index);
+		if (!prints.getOptions().equals(old.getOptions())) {
+			LOG.log(Level.WARNING, 
+				"Output options changed from \"{0}\" to \"{1}\", all sectors changed", 
+					new Object[] { old.getOptions(), prints.getOptions() });
+		}
+		Set<String> removed = subjects(old.changedSince(prints));
+		Set<String> added = subjects(prints.changedSince(old));
+		int nremoved = removed.size();
+		int nadded = added.size();
+		
+		// parents touched by a changed sector are removed and added again
+		Set<String> parents = Delta.closure(prev, removed, SPATIAL_PP.stringValue());
+		parents.addAll(Delta.closure(fout, added, SPATIAL_PP.stringValue()));
+		removed.addAll(parents);
+		added.addAll(parents);
+		
+		File fremoved = derivedFile(fout, "removed");
+		File fadded = derivedFile(fout, "added");
+		long n;
+		try (OutputStream out = makeOutput(fremoved, gzip, metrics)) {
+			n = Delta.filter(prev, removed, out);
+		}
+		LOG.log(Level.INFO, "Removed {0} sectors, {1} triples", 
+											new Object[] { nremoved, n });
+		try (OutputStream out = makeOutput(fadded, gzip, metrics)) {
+			n = Delta.filter(fout, added, out);
+		}
+		LOG.log(Level.INFO, "Added {0} sectors, {1} triples", 
+											new Object[] { nadded, n });
+		if (!parents.isEmpty()) {
+			LOG.log(Level.INFO, "Parents removed and added again: {0}", parents.size());
+		}
+	}
+	
+	/**
+	 * Get the RDF output format
+	 * 
+	 * @param name ntriples, turtle or binary
+	 * @return RDF format
+	 */
+	private static RDFFormat makeFormat(String name) {
+		switch (name) {
+			case "ntriples": return RDFFormat.NTRIPLES;
+			case "turtle": return RDFFormat.TURTLE;
+			case "binary": return RDFFormat.BINARY;
+			default: throw new IllegalArgumentException("Unknown format: " + name);
+		}
+	}
+	
+	/**
+	 * Open the output file, compressed with multi-member gzip if requested.
+	 * The file is written by a separate I/O thread, the number of bytes 
+	 * written to the file is added to the metrics.
+	 * 
+	 * @param fout output file
+	 * @param gzip true to compress
+	 * @param fsync true to force the file to the storage device on close
+	 * @param metrics metrics of the conversion
+	 * @return output stream
+	 * @throws IOException 
+	 */
+	private static OutputStream makeOutput(File fout, boolean gzip, boolean fsync,
+									Metrics metrics) throws IOException {
+		OutputStream out = new FileOutputstreamWriter(fout, fsync, metrics).stream();
+		return gzip 
+			? new BlockGzipOutputStream(out, Runtime.getRuntime().availableProcessors())
+			: out;
+	}
+	
+	/**
+	 * Open the output file, compressed with multi-member gzip if requested
+	 * 
+	 * @param fout output file
+	 * @param gzip true to compress
+	 * @param metrics metrics of the conversion
+	 * @return output stream
+	 * @throws IOException 
+	 */
+	private static OutputStream makeOutput(File fout, boolean gzip, Metrics metrics) 
+															throws IOException {
+		return makeOutput(fout, gzip, false, metrics);
+	}
+	
+	/**
+	 * Get a UTF-8 writer for an output stream.
+	 * Uncompressed output is encoded directly into the buffers of the file.
+	 * 
+	 * @param out output stream
+	 * @return writer
+	 */
+	private static Writer makeWriter(OutputStream out) {
+		return (out instanceof FileOutputstreamWriter.Stream)
+			? ((FileOutputstreamWriter.Stream) out).writer()
+			: new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+	}
+	
+	/**
+	 * Log the metrics, and write them to a JSON file if requested
+	 * 
+	 * @param file JSON file or null
+	 * @throws IOException 
+	 */
+	private static void writeMetrics(String file) throws IOException {
+		LOG.info(METRICS.toString());
+		if (file != null) {
+			try (Writer w = new OutputStreamWriter(
+							new FileOutputStream(file), Charsets.UTF_8)) {
+				METRICS.writeJson(w);
+			}
+		}
+	}
+	
+	/**
+	 * Log the hit rate of the value caches
+	 */
+	private static void logCaches() {
+		for (ValueCache<?> cache: 
+				Arrays.asList(NUTS_IRIS, NIS_IRIS, LABELS_NL, LABELS_FR)) {
+			LOG.info(cache.toString());
+		}
+	}
+	
+	/**
+	 * Split command line into --key=value options and other arguments
+	 * 
+	 * @param args command line arguments
+	 * @param opts map to store the options in
+	 * @return other arguments
+	 */
+	static List<String> parseArgs(String[] args, Map<String,String> opts) {
+		List<String> files = new ArrayList<>();
+		for (String arg: args) {
+			if (arg.startsWith("--")) {
+				int eq = arg.indexOf('=');
+				if (eq > 0) {
+					opts.put(arg.substring(2, eq), arg.substring(eq + 1));
+				} else {
+					opts.put(arg.substring(2), "");
+				}
+			} else {
+				files.add(arg);
 			}
 		}
+		return files;
 	}
 
+	/**
+	 * Convert one shapefile, including the optional simplified levels 
+	 * and delta files.
+	 * Value caches and coordinate transformations are static, so they are
+	 * shared by all conversions in the same JVM.
+	 * 
+	 * @param fin shapefile
+	 * @param fout RDF output file
+	 * @param opts options
+	 * @throws IOException
+	 * @throws FactoryException 
+	 */
+	static void convert(File fin, File fout, Map<String,String> opts) 
+										throws IOException, FactoryException {
+		convert(fin, fout, opts, METRICS);
+	}
+	
+	/**
+	 * Convert one shapefile, including the optional simplified levels 
+	 * and delta files, and add the time and counters to the given metrics.
+	 * 
+	 * @param fin shapefile
+	 * @param fout RDF output file
+	 * @param opts options
+	 * @param metrics metrics of this conversion
+	 * @throws IOException
+	 * @throws FactoryException 
+	 */
+	static void convert(File fin, File fout, Map<String,String> opts, 
+						Metrics metrics) throws IOException, FactoryException {
+		int threads = Integer.parseInt(opts.getOrDefault("threads", "1"));
+		int decimals = Integer.parseInt(opts.getOrDefault("decimals", "-1"));
+		RDFFormat format = makeFormat(opts.getOrDefault("format", "ntriples"));
+		// one decision for the output and all files derived from it
+		boolean gzip = opts.containsKey("gzip") || fout.getName().endsWith(".gz");
+		
+		boolean ntriples = format.equals(RDFFormat.NTRIPLES);
+		
+		// the previous output and its index would be overwritten before reading
+		if (opts.containsKey("delta") && new File(opts.get("delta"))
+					.getCanonicalFile().equals(fout.getCanonicalFile())) {
+			throw new IllegalArgumentException(
+				"Previous output for --delta must differ from the output file: " + fout);
+		}
+		
+		// coordinates are always tagged with their CRS
+		Reprojection proj = Reprojection.get(Reprojection.LAMBERT72, 
+			opts.containsKey("wgs84") ? Reprojection.WGS84 : Reprojection.LAMBERT72);
+		// GeoTools reads the sectors unless --mapped is given, the other
+		// stages always use the mapped reader
+		boolean mapped = opts.containsKey("mapped");
+		boolean parallel = ntriples && (mapped || threads > 1);
+		if (!ntriples && (mapped || threads > 1)) {
+			LOG.warning("Only N-Triples can be written in parallel");
+		}
+		
+		// decoded once for validate, simplify, lineage and adjacency
+		boolean shared = false;
+		for (String opt: TABLE_OPTIONS) {
+			shared |= opts.containsKey(opt);
+		}
+		SectorTable table = null;
+		if (shared) {
+			try (Metrics.Stage stage = metrics.stage("table")) {
+				table = new SectorTable(new MappedShapefile(fin, Charsets.UTF_8));
+			}
+			LOG.log(Level.INFO, "Sector table: {0} sectors, {1} bytes", 
+							new Object[] { table.size(), table.memory() });
+		}
+		
+		ParentCheck parents = null;
+		if (opts.containsKey("validate")) {
+			try (Metrics.Stage stage = metrics.stage("validate")) {
+				parents = validate(table, fout, opts, threads);
+			}
+			if (!opts.containsKey("infer")) {
+				parents = null;
+			}
+		}
+		
+		Hierarchy hierarchy = opts.containsKey("hierarchy") ? new Hierarchy() : null;
+		
+		ShapefileDataStore store = null;
+		try (Metrics.Stage stage = metrics.stage("convert");
+			OutputStream out = makeOutput(fout, gzip, opts.containsKey("fsync"), 
+																metrics)) {
+			if (parallel) {
+				PartitionedConverter conv = mapped
+					? new PartitionedConverter(new MappedShapefile(fin, Charsets.UTF_8), 
+							threads, decimals, proj, parents, hierarchy, metrics)
+					: new PartitionedConverter(fin, Charsets.UTF_8, 
+							threads, decimals, proj, parents, hierarchy, metrics);
+				conv.toRDF(out);
+			} else {
+				store = new ShapefileDataStore(fin.toURI().toURL());
+				store.setCharset(Charsets.UTF_8);
+
+				RDFHandler handler = ntriples 
+					? new WktNTriplesWriter(makeWriter(out))
+					: Rio.createWriter(format, out);
+				toRDF(store, handler, new WktEncoder(decimals, proj), parents, 
+														hierarchy, metrics);
+			}
+		} finally {
+			if (store != null) {
+				store.dispose();
+			}
+		}
+		if (hierarchy != null) {
+			LOG.log(Level.INFO, "Parents: {0}", hierarchy.size());
+			metrics.count("parents", hierarchy.size());
+		}
+		logCaches();
+		
+		if (opts.containsKey("sort")) {
+			if (ntriples) {
+				long memory = opts.containsKey("sort-memory")
+							? Long.parseLong(opts.get("sort-memory")) * 1024 * 1024
+							: Runtime.getRuntime().maxMemory() / 4;
+				try (Metrics.Stage stage = metrics.stage("sort")) {
+					sort(fout, gzip, memory, metrics);
+				}
+			} else {
+				LOG.warning("Sorting is only supported for N-Triples");
+			}
+		}
+
+		if (opts.containsKey("simplify")) {
+			try (Metrics.Stage stage = metrics.stage("simplify")) {
+				simplify(table, fout, opts.get("simplify"), decimals, proj, gzip, metrics);
+			}
+		}
+
+		if (opts.containsKey("lineage")) {
+			try (Metrics.Stage stage = metrics.stage("lineage")) {
+				lineage(table, fout, gzip, metrics);
+			}
+		}
+		
+		if (opts.containsKey("adjacency")) {
+			try (Metrics.Stage stage = metrics.stage("adjacency")) {
+				String sliver = opts.get("adjacency");
+				adjacency(table, fout, threads, sliver.isEmpty() ? Adjacency.SLIVER 
+									: Double.parseDouble(sliver), gzip, metrics);
+			}
+		}
+
+		// a delta needs the fingerprints of this run, and writes them for the next
+		if (opts.containsKey("delta") || opts.containsKey("fingerprints")) {
+			Fingerprints prints;
+			try (Metrics.Stage stage = metrics.stage("fingerprints")) {
+				prints = fingerprints(fin, fout, threads, outputOptions(opts), 
+												opts.containsKey("hierarchy"));
+			}
+			if (opts.containsKey("delta")) {
+				if (ntriples) {
+					try (Metrics.Stage stage = metrics.stage("delta")) {
+						delta(new File(opts.get("delta")), fout, prints, gzip, metrics);
+					}
+				} else {
+					LOG.warning("Delta is only supported for N-Triples");
+				}
+			}
+		}
+	}
+	
     /**
      * Main
      * 
      * @param args 
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.err.println("Usage: <SHP input file> <RDF output file>");
+		Map<String,String> opts = new HashMap<>();
+		List<String> files = parseArgs(args, opts);
+		
+		// nothing is displayed, so don't initialize AWT
+		System.setProperty("java.awt.headless", "true");
+		Reprojection.useEpsg(opts.containsKey("epsg"));
+		
+		boolean batch = opts.containsKey("batch");
+        if (files.size() != (batch ? 0 : 2)) {
+            System.err.println("Usage: [--mapped] [--threads=<n>] [--decimals=<n>] "
+						+ "[--hierarchy] [--simplify=<tolerance,...>] [--adjacency[=<sliver>]] [--lineage] "
+						+ "[--wgs84] [--epsg] [--format=ntriples|turtle|binary] [--gzip] [--fsync] "
+						+ "[--sort [--sort-memory=<MB>]] "
+						+ "[--fingerprints] [--delta=<previous RDF output file>] "
+						+ "[--validate[=nis|nuts3] [--parents=<SHP file>] "
+						+ "[--parents-column=<name>] [--infer]] "
+						+ "[--metrics=<JSON file>] "
+						+ "<SHP input file> <RDF output file>");
+			System.err.println("   or: [--jobs=<n>] [--memory=<MB>] [options] "
+						+ "--batch=<manifest file>");
+			System.err.println("--mapped only selects the reader of the sectors, "
+						+ "--validate, --simplify, --lineage, --adjacency and --delta "
+						+ "always use the memory-mapped reader");
+			System.err.println("--delta needs the fingerprints of the previous "
+						+ "output, written by --fingerprints or --delta");
+			System.err.println("Without --parents, --validate only finds sectors "
+						+ "in an exclave of their parent enclosed by another parent, "
+						+ "not wrong sectors on the border between two parents");
             System.exit(-1);
         }
        
 	//	File fin = new File("C:\\Data\\statsector\\scbel01012011_gen13.shp");
 	
-		File fin = new File(args[0]);		
-		File fout = new File(args[1]);
-        
-		
         try {
-			ShapefileDataStore store = new ShapefileDataStore(fin.toURI().toURL());
-            store.setCharset(Charsets.UTF_8);
-            toRDF(store);
-            
-			store.getFeatureReader().close();
-			store.dispose();
-		   
-			Writer buf = new OutputStreamWriter(new FileOutputStream(fout), Charsets.UTF_8);
-			Rio.write(MODEL, buf, RDFFormat.NTRIPLES);
+			if (batch) {
+				int jobs = Integer.parseInt(opts.getOrDefault("jobs", 
+							String.valueOf(Runtime.getRuntime().availableProcessors())));
+				long memory = opts.containsKey("memory")
+							? Long.parseLong(opts.get("memory")) * 1024 * 1024
+							: Runtime.getRuntime().maxMemory() / 2;
+				BatchConverter converter = new BatchConverter(jobs, memory);
+				converter.read(new File(opts.get("batch")), opts);
+				if (converter.run() > 0) {
+					writeMetrics(opts.get("metrics"));
+					System.exit(-3);
+				}
+			} else {
+				convert(new File(files.get(0)), new File(files.get(1)), opts);
+			}
+			writeMetrics(opts.get("metrics"));
         } catch (MalformedURLException ex) {
             LOG.severe("Could not open file");
             System.exit(-2);
-        } catch (IOException ex) {
+        } catch (IOException|RDFHandlerException ex) {
             LOG.severe("IO error processing");
             System.exit(-3);
+        } catch (FactoryException ex) {
+            LOG.severe("Could not find coordinate transformation");
+            System.exit(-4);
         }
     }
 }
@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Read-only shapefile (.SHP, .SHX and .DBF) using memory-mapped files.
+ *
+ * Records are decoded directly from the mapped buffers by a cursor,
+ * which reuses its buffers from one record to the next.
+ * Each thread should use its own cursor.
+ * Only (multi)polygon shapes are supported.
+ * 
+ * This is the only reader of the sector table (validation, simplification,
+ * lineage, adjacency, fingerprints, Geo and the sector locator), GeoTools 
+ * is only used as an alternative reader for the conversion itself.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class MappedShapefile {
+	private final static int SHP_MAGIC = 9994;
+	private final static int SHP_NULL = 0;
+	private final static int SHP_POLYGON = 5;
+	private final static int SHP_POLYGON_Z = 15;
+	private final static int SHP_POLYGON_M = 25;
+
+	private final static byte DBF_DELETED = '*';
+	private final static byte DBF_END = 0x0D;
+
+	private final ByteBuffer shp;
+	private final ByteBuffer dbf;
+	private final ShxIndex index;
+	private final Charset charset;
+	private final int records;
+
+	private final int headerLen;
+	private final int recordLen;
+	private final String[] names;
+	private final char[] types;
+	private final int[] offsets;
+	private final int[] lengths;
+
+	/**
+	 * Map a file into memory
+	 *
+	 * @param f file
+	 * @return read-only buffer
+	 * @throws IOException
+	 */
+	private static ByteBuffer map(File f) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+			FileChannel ch = raf.getChannel()) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+	}
+
+	/**
+	 * Get the number of records
+	 *
+	 * @return number of records
+	 */
+	public int size() {
+		return records;
+	}
+
+	/**
+	 * Get the .SHX index
+	 *
+	 * @return index
+	 */
+	public ShxIndex index() {
+		return index;
+	}
+
+	/**
+	 * Get the number of columns in the DBF
+	 *
+	 * @return number of columns
+	 */
+	public int columns() {
+		return names.length;
+	}
+
+	/**
+	 * Get the name of a column in the DBF
+	 *
+	 * @param col column index, 0-based
+	 * @return column name
+	 */
+	public String column(int col) {
+		return names[col];
+	}
+
+	/**
+	 * Get the index of a column in the DBF
+	 *
+	 * @param name column name
+	 * @return column index or -1 when not found
+	 */
+	public int column(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Create a new cursor, positioned before the first record
+	 *
+	 * @return cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Reusable character buffer holding the value of a DBF field
+	 */
+	private static class Field implements CharSequence {
+		private char[] buf = new char[64];
+		private int len = 0;
+		private int rec = -1;
+
+		@Override
+		public int length() {
+			return len;
+		}
+
+		@Override
+		public char charAt(int i) {
+			if (i >= len) {
+				throw new IndexOutOfBoundsException();
+			}
+			return buf[i];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(buf, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(buf, 0, len);
+		}
+	}
+
+	/**
+	 * Cursor over the records of the shapefile
+	 */
+	public class Cursor {
+		private final ByteBuffer shpBuf = shp.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		private final ByteBuffer dbfBuf = dbf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		private final CharsetDecoder decoder = charset.newDecoder()
+							.onMalformedInput(CodingErrorAction.REPLACE)
+							.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final Field[] fields = new Field[names.length];
+
+		private int rec = -1;
+		private int shape;
+		private int type;
+		private int parts;
+		private int points;
+
+		/* Ring classification, reused between records */
+		private int[] shellOf = new int[16];
+		private double[] areas = new double[16];
+
+		/**
+		 * Position the cursor before a record, next() will move to this record
+		 *
+		 * @param rec record number, 0-based
+		 */
+		public void goTo(int rec) {
+			this.rec = rec - 1;
+		}
+
+		/**
+		 * Move to the next record
+		 *
+		 * @return false if there are no more records
+		 */
+		public boolean next() {
+			if (rec + 1 >= records) {
+				return false;
+			}
+			rec++;
+			shape = index.offset(rec) + 8;
+			type = shpBuf.getInt(shape);
+			if (type == SHP_POLYGON || type == SHP_POLYGON_Z || type == SHP_POLYGON_M) {
+				parts = shpBuf.getInt(shape + 36);
+				points = shpBuf.getInt(shape + 40);
+			} else {
+				parts = 0;
+				points = 0;
+			}
+			return true;
+		}
+
+		/**
+		 * Get the current record number
+		 *
+		 * @return record number, 0-based
+		 */
+		public int record() {
+			return rec;
+		}
+
+		/**
+		 * Check if the current record is marked as deleted in the DBF
+		 *
+		 * @return true if deleted
+		 */
+		public boolean deleted() {
+			return dbfBuf.get(headerLen + rec * recordLen) == DBF_DELETED;
+		}
+
+		/**
+		 * Get the trimmed text value of a column of the current record.
+		 * Trailing zero decimals of numeric values are removed.
+		 * The returned value is only valid until the cursor moves.
+		 *
+		 * @param col column index
+		 * @return reusable character sequence
+		 */
+		public CharSequence text(int col) {
+			Field f = fields[col];
+			if (f == null) {
+				f = new Field();
+				fields[col] = f;
+			}
+			if (f.rec == rec) {
+				return f;
+			}
+			int start = headerLen + rec * recordLen + offsets[col];
+			int end = start + lengths[col];
+			while (start < end && isBlank(dbfBuf.get(start))) {
+				start++;
+			}
+			while (end > start && isBlank(dbfBuf.get(end - 1))) {
+				end--;
+			}
+			if (types[col] == 'N' || types[col] == 'F') {
+				end = stripDecimals(start, end);
+			}
+			if (f.buf.length < end - start) {
+				f.buf = new char[Math.max(end - start, f.buf.length * 2)];
+			}
+			((Buffer) dbfBuf).limit(end).position(start);
+			CharBuffer out = CharBuffer.wrap(f.buf);
+			decoder.reset();
+			decoder.decode(dbfBuf, out, true);
+			decoder.flush(out);
+			((Buffer) dbfBuf).clear();
+
+			f.len = out.position();
+			f.rec = rec;
+			return f;
+		}
+
+		/**
+		 * Remove trailing zero decimals, and the decimal point if possible
+		 *
+		 * @param start start position
+		 * @param end end position
+		 * @return new end position
+		 */
+		private int stripDecimals(int start, int end) {
+			int dot = -1;
+			for (int i = start; i < end; i++) {
+				if (dbfBuf.get(i) == '.') {
+					dot = i;
+				}
+			}
+			if (dot < 0) {
+				return end;
+			}
+			while (end > dot + 1 && dbfBuf.get(end - 1) == '0') {
+				end--;
+			}
+			return (end == dot + 1) ? dot : end;
+		}
+
+		/**
+		 * Check if a byte is padding
+		 *
+		 * @param b byte
+		 * @return true if space or null
+		 */
+		private boolean isBlank(byte b) {
+			return b == ' ' || b == 0;
+		}
+
+		/**
+		 * Get the raw bytes of the current shape, without record header
+		 *
+		 * @return read-only buffer, only valid until the cursor moves
+		 */
+		public ByteBuffer shapeBytes() {
+			ByteBuffer buf = shpBuf.asReadOnlyBuffer();
+			((Buffer) buf).limit(shape + index.length(rec)).position(shape);
+			return buf;
+		}
+
+		/**
+		 * Check if the current record has a (non-null) shape
+		 *
+		 * @return false for null shapes
+		 */
+		public boolean hasShape() {
+			return type != SHP_NULL && points > 0;
+		}
+
+		/**
+		 * Get the number of parts (rings) of the current shape
+		 *
+		 * @return number of parts
+		 */
+		public int numParts() {
+			return parts;
+		}
+
+		/**
+		 * Get the number of points of the current shape
+		 *
+		 * @return number of points
+		 */
+		public int numPoints() {
+			return points;
+		}
+
+		/**
+		 * Get the index of the first point of a part
+		 *
+		 * @param part part
+		 * @return index of first point
+		 */
+		public int partStart(int part) {
+			return (part < parts) ? shpBuf.getInt(shape + 44 + part * 4) : points;
+		}
+
+		/**
+		 * Get the X coordinate of a point
+		 *
+		 * @param pt point index
+		 * @return X coordinate
+		 */
+		public double x(int pt) {
+			return shpBuf.getDouble(shape + 44 + parts * 4 + pt * 16);
+		}
+
+		/**
+		 * Get the Y coordinate of a point
+		 *
+		 * @param pt point index
+		 * @return Y coordinate
+		 */
+		public double y(int pt) {
+			return shpBuf.getDouble(shape + 44 + parts * 4 + pt * 16 + 8);
+		}
+
+		/**
+		 * Calculate the signed area of a ring, negative when clockwise
+		 *
+		 * @param part part
+		 * @return area
+		 */
+		private double area(int part) {
+			int start = partStart(part);
+			int end = partStart(part + 1);
+			double sum = 0;
+			for (int i = start; i < end - 1; i++) {
+				sum += x(i) * y(i + 1) - x(i + 1) * y(i);
+			}
+			return sum / 2;
+		}
+
+		/**
+		 * Check if a point is inside a ring, using ray casting
+		 *
+		 * @param part ring
+		 * @param px X coordinate
+		 * @param py Y coordinate
+		 * @return true if inside
+		 */
+		private boolean inside(int part, double px, double py) {
+			int start = partStart(part);
+			int end = partStart(part + 1);
+			boolean in = false;
+			for (int i = start, j = end - 1; i < end; j = i++) {
+				double yi = y(i);
+				double yj = y(j);
+				if ((yi > py) != (yj > py)) {
+					double xi = x(i);
+					double xj = x(j);
+					if (px < (xj - xi) * (py - yi) / (yj - yi) + xi) {
+						in = !in;
+					}
+				}
+			}
+			return in;
+		}
+
+		/**
+		 * Assign each ring to a shell.
+		 * Shells are clockwise, holes belong to the smallest shell containing
+		 * them. Holes without a shell are treated as shells.
+		 * Like GeoTools, all holes belong to the shell when there is only one.
+		 *
+		 * @return number of shells
+		 */
+		public int classifyRings() {
+			if (shellOf.length < parts) {
+				shellOf = new int[Math.max(parts, shellOf.length * 2)];
+				areas = new double[shellOf.length];
+			}
+			int shells = 0;
+			int single = -1;
+			for (int i = 0; i < parts; i++) {
+				areas[i] = area(i);
+				shellOf[i] = (areas[i] <= 0) ? i : -1;
+				if (shellOf[i] == i) {
+					single = (shells == 0) ? i : -1;
+					shells++;
+				}
+			}
+			if (shells == 1) {
+				for (int i = 0; i < parts; i++) {
+					shellOf[i] = single;
+				}
+				return 1;
+			}
+			shells = 0;
+			for (int i = 0; i < parts; i++) {
+				if (shellOf[i] != -1) {
+					continue;
+				}
+				double px = x(partStart(i));
+				double py = y(partStart(i));
+				double best = Double.MAX_VALUE;
+				for (int j = 0; j < parts; j++) {
+					if (shellOf[j] == j && -areas[j] < best && inside(j, px, py)) {
+						best = -areas[j];
+						shellOf[i] = j;
+					}
+				}
+			}
+			for (int i = 0; i < parts; i++) {
+				if (shellOf[i] == -1 || shellOf[i] == i) {
+					shellOf[i] = i;
+					shells++;
+				}
+			}
+			return shells;
+		}
+
+		/**
+		 * Get the shell of a ring, after classifyRings() has been called
+		 *
+		 * @param part ring
+		 * @return shell, equal to part when the ring is a shell itself
+		 */
+		public int shellOf(int part) {
+			return shellOf[part];
+		}
+
+		/**
+		 * Create a JTS ring from a part of the current shape
+		 *
+		 * @param factory geometry factory
+		 * @param part part
+		 * @return linear ring
+		 */
+		private LinearRing ring(GeometryFactory factory, int part) {
+			int start = partStart(part);
+			Coordinate[] coords = new Coordinate[partStart(part + 1) - start];
+			for (int i = 0; i < coords.length; i++) {
+				coords[i] = new Coordinate(x(start + i), y(start + i));
+			}
+			return factory.createLinearRing(coords);
+		}
+
+		/**
+		 * Create a JTS multipolygon from the current shape
+		 *
+		 * @param factory geometry factory
+		 * @return multipolygon, empty for null shapes
+		 */
+		public MultiPolygon geometry(GeometryFactory factory) {
+			if (!hasShape()) {
+				return factory.createMultiPolygon(new Polygon[0]);
+			}
+			classifyRings();
+			return SectorTable.polygons(factory, 0, parts, 
+									p -> shellOf[p], p -> ring(factory, p));
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file .SHP file, the .SHX and .DBF must be in the same directory
+	 * @param charset character set of the DBF
+	 * @throws IOException
+	 */
+	public MappedShapefile(File file, Charset charset) throws IOException {
+		this.charset = charset;
+		this.index = new ShxIndex(ShxIndex.sibling(file, "shx"));
+
+		this.shp = map(file).order(ByteOrder.BIG_ENDIAN);
+		if (shp.limit() < 100 || shp.getInt(0) != SHP_MAGIC) {
+			throw new IOException("Not a shapefile: " + file);
+		}
+
+		this.dbf = map(ShxIndex.sibling(file, "dbf")).order(ByteOrder.LITTLE_ENDIAN);
+		int nrec = dbf.getInt(4);
+		this.headerLen = dbf.getShort(8) & 0xFFFF;
+		this.recordLen = dbf.getShort(10) & 0xFFFF;
+		this.records = Math.min(nrec, index.size());
+
+		// field descriptors of 32 bytes each, terminated by 0x0D
+		int n = 0;
+		while (32 + n * 32 < headerLen && dbf.get(32 + n * 32) != DBF_END) {
+			n++;
+		}
+		names = new String[n];
+		types = new char[n];
+		offsets = new int[n];
+		lengths = new int[n];
+
+		byte[] name = new byte[11];
+		int offset = 1; // first byte of a record is the deletion flag
+		for (int i = 0; i < n; i++) {
+			int pos = 32 + i * 32;
+			int len = 0;
+			while (len < 11 && dbf.get(pos + len) != 0) {
+				name[len] = dbf.get(pos + len);
+				len++;
+			}
+			names[i] = new String(Arrays.copyOf(name, len), charset).trim();
+			types[i] = (char) dbf.get(pos + 11);
+			lengths[i] = dbf.get(pos + 16) & 0xFF;
+			offsets[i] = offset;
+			offset += lengths[i];
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run metrics: time per stage, counters, time to first triple and peak heap.
+ *
+ * Stages and counters can be updated from multiple threads.
+ * Times of fine-grained stages (e.g. reading a feature) are summed over
+ * all threads.
+ * Concurrent conversions (e.g. in batch mode) each get their own job metrics,
+ * which are added to the totals when the job is finished.
+ * When the JVM supports Flight Recorder (Java 11 or later), every
+ * coarse stage is also recorded as a custom JFR event.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Metrics {
+	private final static Logger LOG = Logger.getLogger(Metrics.class.getName());
+	
+	private final static String JFR_EVENT = "be.fedict.lodtools.statsectors.Stage";
+	/* JFR methods, resolved once, null on Java 8 or without JFR */
+	private final static Method JFR_NEW = jfrMethod("jdk.jfr.EventFactory", "newEvent");
+	private final static Method JFR_BEGIN = jfrMethod("jdk.jfr.Event", "begin");
+	private final static Method JFR_END = jfrMethod("jdk.jfr.Event", "end");
+	private final static Method JFR_SET = 
+						jfrMethod("jdk.jfr.Event", "set", int.class, Object.class);
+	private final static Method JFR_COMMIT = jfrMethod("jdk.jfr.Event", "commit");
+	private final static Object JFR_FACTORY = jfrFactory();
+	private final static AtomicBoolean JFR_FAILED = new AtomicBoolean();
+	
+	private final long start = System.nanoTime();
+	private volatile long end = 0;
+	private final Map<String,LongAdder> nanos = new ConcurrentSkipListMap<>();
+	private final Map<String,LongAdder> counters = new ConcurrentSkipListMap<>();
+	private final AtomicLong firstTriple = new AtomicLong();
+	private final Map<String,Metrics> jobs = new ConcurrentSkipListMap<>();
+	
+	/**
+	 * Running stage, timed until it is closed
+	 */
+	public class Stage implements AutoCloseable {
+		private final String name;
+		private final long begin = System.nanoTime();
+		private final Object event;
+		
+		@Override
+		public void close() {
+			time(name, System.nanoTime() - begin);
+			if (event != null) {
+				try {
+					JFR_END.invoke(event);
+					JFR_SET.invoke(event, 0, name);
+					JFR_COMMIT.invoke(event);
+				} catch (ReflectiveOperationException roe) {
+					jfrFailed("Could not commit JFR event", roe);
+				}
+			}
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param name stage name
+		 */
+		private Stage(String name) {
+			this.name = name;
+			this.event = jfrEvent();
+		}
+	}
+	
+	/**
+	 * Look up a public JFR method
+	 * 
+	 * @param cls class name
+	 * @param name method name
+	 * @param params parameter types
+	 * @return method or null when JFR is not available
+	 */
+	private static Method jfrMethod(String cls, String name, Class<?>... params) {
+		try {
+			return Class.forName(cls).getMethod(name, params);
+		} catch (ReflectiveOperationException|RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Log a failure to record a JFR event, only the first one as a warning
+	 * 
+	 * @param msg message
+	 * @param e exception
+	 */
+	private static void jfrFailed(String msg, Exception e) {
+		Level level = JFR_FAILED.compareAndSet(false, true) ? Level.WARNING : Level.FINE;
+		LOG.log(level, msg, e);
+	}
+	
+	/**
+	 * Create the factory for JFR stage events, if JFR is available
+	 * 
+	 * @return event factory or null
+	 */
+	private static Object jfrFactory() {
+		if (JFR_NEW == null || JFR_BEGIN == null || JFR_END == null 
+								|| JFR_SET == null || JFR_COMMIT == null) {
+			// Java 8, or JFR not included
+			return null;
+		}
+		try {
+			Class<?> annClass = Class.forName("jdk.jfr.AnnotationElement");
+			Constructor<?> ann = annClass.getConstructor(Class.class, Object.class);
+			Class<?> valClass = Class.forName("jdk.jfr.ValueDescriptor");
+			Constructor<?> val = valClass.getConstructor(Class.class, String.class);
+			
+			List<Object> anns = Arrays.asList(
+				ann.newInstance(Class.forName("jdk.jfr.Name"), JFR_EVENT),
+				ann.newInstance(Class.forName("jdk.jfr.Label"), "Conversion stage"),
+				ann.newInstance(Class.forName("jdk.jfr.Category"), 
+												new String[] { "Statsectors" }));
+			List<Object> fields = new ArrayList<>();
+			fields.add(val.newInstance(String.class, "stage"));
+			
+			Method create = Class.forName("jdk.jfr.EventFactory")
+								.getMethod("create", List.class, List.class);
+			return create.invoke(null, anns, fields);
+		} catch (ReflectiveOperationException|RuntimeException e) {
+			LOG.log(Level.WARNING, "Could not create JFR stage events", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Create and begin a new JFR event
+	 * 
+	 * @return event or null
+	 */
+	private static Object jfrEvent() {
+		if (JFR_FACTORY == null) {
+			return null;
+		}
+		try {
+			Object event = JFR_NEW.invoke(JFR_FACTORY);
+			JFR_BEGIN.invoke(event);
+			return event;
+		} catch (ReflectiveOperationException roe) {
+			jfrFailed("Could not begin JFR event", roe);
+			return null;
+		}
+	}
+	
+	/**
+	 * Start a stage, to be closed when the stage is finished
+	 * 
+	 * @param name stage name
+	 * @return running stage
+	 */
+	public Stage stage(String name) {
+		return new Stage(name);
+	}
+	
+	/**
+	 * Add time to a stage
+	 * 
+	 * @param name stage name
+	 * @param ns nanoseconds
+	 */
+	public void time(String name, long ns) {
+		nanos.computeIfAbsent(name, k -> new LongAdder()).add(ns);
+	}
+	
+	/**
+	 * Add to a counter
+	 * 
+	 * @param name counter name
+	 * @param n value to add
+	 */
+	public void count(String name, long n) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(n);
+	}
+	
+	/**
+	 * Get the value of a counter
+	 * 
+	 * @param name counter name
+	 * @return value
+	 */
+	public long get(String name) {
+		LongAdder l = counters.get(name);
+		return (l != null) ? l.sum() : 0;
+	}
+	
+	/**
+	 * Create the metrics of a job, reported separately in the JSON summary.
+	 * The job metrics are not included in the totals until they are added.
+	 * 
+	 * @param name job name, e.g. the output file
+	 * @return metrics of the job
+	 */
+	public Metrics job(String name) {
+		Metrics m = new Metrics();
+		jobs.put(name, m);
+		return m;
+	}
+	
+	/**
+	 * Add the times and counters of a finished job to these metrics
+	 * 
+	 * @param job metrics of the job
+	 */
+	public void add(Metrics job) {
+		job.end = System.nanoTime();
+		for (Map.Entry<String,LongAdder> e: job.nanos.entrySet()) {
+			time(e.getKey(), e.getValue().sum());
+		}
+		for (Map.Entry<String,LongAdder> e: job.counters.entrySet()) {
+			count(e.getKey(), e.getValue().sum());
+		}
+		long first = job.firstTriple.get();
+		if (first != 0) {
+			firstTriple.accumulateAndGet(first, 
+						(a, b) -> (a == 0) ? b : Math.min(a, b));
+		}
+	}
+	
+	/**
+	 * Mark the first triple of the run, later calls are ignored.
+	 * Cheap enough to be called for every sector.
+	 */
+	public void firstTriple() {
+		if (firstTriple.get() == 0) {
+			firstTriple.compareAndSet(0, System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Get the time from the start of the JVM until the first triple,
+	 * including JVM startup and class loading
+	 * 
+	 * @return milliseconds, or -1 when no triple was produced
+	 */
+	public long timeToFirstTriple() {
+		long first = firstTriple.get();
+		return (first != 0) 
+			? first - ManagementFactory.getRuntimeMXBean().getStartTime() : -1;
+	}
+	
+	/**
+	 * Get the peak heap usage, summed over all heap memory pools
+	 * 
+	 * @return bytes
+	 */
+	public static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+	
+	/**
+	 * Write a map as JSON object
+	 * 
+	 * @param w writer
+	 * @param map values
+	 * @param scale divide values by this number
+	 * @throws IOException 
+	 */
+	private static void writeMap(Writer w, Map<String,LongAdder> map, double scale) 
+															throws IOException {
+		w.write('{');
+		boolean first = true;
+		for (Map.Entry<String,LongAdder> e: map.entrySet()) {
+			if (!first) {
+				w.write(", ");
+			}
+			first = false;
+			w.write('"' + e.getKey() + "\": ");
+			w.write((scale == 1) ? String.valueOf(e.getValue().sum()) 
+					: String.format(Locale.ROOT, "%.3f", e.getValue().sum() / scale));
+		}
+		w.write('}');
+	}
+	
+	/**
+	 * Write the times and counters as JSON object
+	 * 
+	 * @param w writer
+	 * @param indent indentation of the members
+	 * @throws IOException 
+	 */
+	private void writeObject(Writer w, String indent) throws IOException {
+		double secs = (((end != 0) ? end : System.nanoTime()) - start) / 1e9;
+		w.write("{\n" + indent + "\"seconds\": ");
+		w.write(String.format(Locale.ROOT, "%.3f", secs));
+		w.write(",\n" + indent + "\"stages\": ");
+		writeMap(w, nanos, 1e9);
+		w.write(",\n" + indent + "\"counters\": ");
+		writeMap(w, counters, 1);
+		w.write(",\n" + indent + "\"triplesPerSecond\": ");
+		w.write(String.valueOf((long) (get("triples") / secs)));
+		w.write(",\n" + indent + "\"secondsToFirstTriple\": ");
+		long first = timeToFirstTriple();
+		w.write((first < 0) ? "null" 
+							: String.format(Locale.ROOT, "%.3f", first / 1e3));
+	}
+	
+	/**
+	 * Write a summary in JSON: seconds per stage, counters, 
+	 * total time, triples per second, time to first triple and peak heap,
+	 * followed by the same figures (without peak heap) per job
+	 * 
+	 * @param w writer
+	 * @throws IOException 
+	 */
+	public void writeJson(Writer w) throws IOException {
+		writeObject(w, "  ");
+		w.write(",\n  \"peakHeapBytes\": ");
+		w.write(String.valueOf(peakHeap()));
+		if (!jobs.isEmpty()) {
+			w.write(",\n  \"jobs\": {");
+			boolean first = true;
+			for (Map.Entry<String,Metrics> e: jobs.entrySet()) {
+				w.write(first ? "\n    \"" : ",\n    \"");
+				first = false;
+				w.write(e.getKey().replace("\\", "\\\\").replace("\"", "\\\"") + "\": ");
+				e.getValue().writeObject(w, "      ");
+				w.write("\n    }");
+			}
+			w.write("\n  }");
+		}
+		w.write("\n}\n");
+		w.flush();
+	}
+	
+	/**
+	 * Get the times and counters, without peak heap, as one line
+	 * 
+	 * @return string builder
+	 */
+	private StringBuilder line() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String,LongAdder> e: nanos.entrySet()) {
+			sb.append(String.format(Locale.ROOT, "%s %.3f s, ", 
+									e.getKey(), e.getValue().sum() / 1e9));
+		}
+		for (Map.Entry<String,LongAdder> e: counters.entrySet()) {
+			sb.append(e.getKey()).append(' ').append(e.getValue().sum()).append(", ");
+		}
+		sb.append("first triple after ").append(timeToFirstTriple()).append(" ms");
+		return sb;
+	}
+	
+	/**
+	 * Get the times and counters of a job as one line, e.g. for logging
+	 * 
+	 * @return string
+	 */
+	public String toJobString() {
+		return line().toString();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = line();
+		sb.append(", peak heap ").append(peakHeap() / (1024 * 1024)).append(" MB");
+		return sb.toString();
+	}
+}
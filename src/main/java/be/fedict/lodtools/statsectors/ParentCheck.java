@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Verify the parent (municipality or NUTS3 region) of each sector 
+ * against the geometries.
+ *
+ * With a layer of parent geometries, the parent containing an interior
+ * point of the sector is looked up in an STR-tree of prepared geometries.
+ * A parent may consist of more than one record in the layer.
+ * Without such a layer, the parents are the unions of their sectors, 
+ * so only sectors in an exclave of their claimed parent that is enclosed
+ * by another parent can be found.
+ * Sectors are checked in parallel.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class ParentCheck {
+	private final static GeometryFactory FACTORY = new GeometryFactory();
+	
+	/* Projected column of the parent code */
+	private final int link;
+	/* Mismatches: claimed and found parent, empty when not found */
+	private final SortedMap<String,String[]> mismatches;
+	
+	/**
+	 * Normalize a code, numeric codes may have a decimal part in the DBF
+	 * 
+	 * @param code raw code
+	 * @return code
+	 */
+	private static String normalize(String code) {
+		String s = code.trim();
+		return s.endsWith(".0") ? s.substring(0, s.length() - 2) : s;
+	}
+	
+	/**
+	 * Get the column of the sector table holding the parent code
+	 * 
+	 * @param table sectors
+	 * @param link projected column holding the parent code
+	 * @return column
+	 */
+	private static SectorTable.Column parents(SectorTable table, int link) {
+		return (link == Main.COL_NUTS3) ? table.nuts3() : table.nis();
+	}
+	
+	/**
+	 * Run a task on a pool with a given number of threads
+	 * 
+	 * @param threads number of threads
+	 * @param task task
+	 * @throws IOException 
+	 */
+	private static void run(int threads, Runnable task) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(task).get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ie);
+		} catch (ExecutionException ee) {
+			throw new IOException(ee);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Check the parents of the sectors against a layer of parent geometries
+	 * 
+	 * @param table sectors
+	 * @param link projected column holding the parent code
+	 * @param parents shapefile with the parent geometries
+	 * @param column name of the column in the parent layer holding the code
+	 * @param threads number of threads
+	 * @return result
+	 * @throws IOException 
+	 */
+	public static ParentCheck againstLayer(SectorTable table, int link, 
+						MappedShapefile parents, String column, int threads) 
+						throws IOException {
+		int pcol = new Projection(column).bind(parents).index(0);
+		STRtree tree = new STRtree();
+		
+		MappedShapefile.Cursor cursor = parents.cursor();
+		while (cursor.next()) {
+			if (cursor.deleted() || !cursor.hasShape()) {
+				continue;
+			}
+			PreparedGeometry prepared = 
+				PreparedGeometryFactory.prepare(cursor.geometry(FACTORY));
+			// build the lazy point locator now, lookups are done in parallel
+			Envelope env = prepared.getGeometry().getEnvelopeInternal();
+			prepared.covers(FACTORY.createPoint(env.centre()));
+			String code = normalize(cursor.text(pcol).toString());
+			prepared.getGeometry().setUserData(code);
+			tree.insert(env, prepared);
+		}
+		tree.build();
+		
+		SectorTable.Column col = parents(table, link);
+		Map<String,String[]> res = new ConcurrentHashMap<>();
+		
+		run(threads, () -> IntStream.range(0, table.size()).parallel().forEach(r -> {
+			if (table.firstRing(r) == table.firstRing(r + 1)) {
+				return;
+			}
+			String claimed = normalize(col.value(r));
+			Point p = table.geometry(r, FACTORY).getInteriorPoint();
+			String found = "";
+			// a parent may consist of more than one record
+			for (Object o: tree.query(p.getEnvelopeInternal())) {
+				PreparedGeometry candidate = (PreparedGeometry) o;
+				if (candidate.covers(p)) {
+					found = (String) candidate.getGeometry().getUserData();
+					if (found.equals(claimed)) {
+						return;
+					}
+				}
+			}
+			res.put(normalize(table.sector(r)), new String[] { claimed, found });
+		}));
+		return new ParentCheck(link, new TreeMap<>(res));
+	}
+	
+	/**
+	 * Get the polygon with the largest area
+	 * 
+	 * @param geom (multi)polygon
+	 * @return index of the polygon
+	 */
+	private static int largest(Geometry geom) {
+		int best = 0;
+		for (int i = 1; i < geom.getNumGeometries(); i++) {
+			if (geom.getGeometryN(i).getArea() > geom.getGeometryN(best).getArea()) {
+				best = i;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Check the parents of the sectors against the unions of the sectors
+	 * of each parent.
+	 * A sector is reported when it lies in an exclave of its claimed parent
+	 * (not in the largest polygon of the union), and that exclave is 
+	 * enclosed by the outline of another parent, which is the parent found.
+	 * This also finds a cluster of adjacent sectors with the same wrong
+	 * parent, but not wrong sectors on the border between two parents.
+	 * 
+	 * @param table sectors
+	 * @param link projected column holding the parent code
+	 * @param threads number of threads
+	 * @return result
+	 * @throws IOException 
+	 */
+	public static ParentCheck againstUnions(SectorTable table, int link, 
+											int threads) throws IOException {
+		SectorTable.Column col = parents(table, link);
+		
+		Map<String,Geometry> unions = new HashMap<>();
+		run(threads, () -> unions.putAll(
+						new Rollup(FACTORY, table, col).union().get(0)));
+		
+		// outlines of the parents, without holes, to find enclosing parents
+		STRtree tree = new STRtree();
+		Map<String,PreparedGeometry> mains = new HashMap<>();
+		for (Map.Entry<String,Geometry> e: unions.entrySet()) {
+			Geometry union = e.getValue();
+			if (union.isEmpty()) {
+				continue;
+			}
+			int main = largest(union);
+			for (int i = 0; i < union.getNumGeometries(); i++) {
+				if (!(union.getGeometryN(i) instanceof Polygon)) {
+					continue;
+				}
+				Polygon poly = (Polygon) union.getGeometryN(i);
+				PreparedGeometry prepared = PreparedGeometryFactory.prepare(
+					FACTORY.createPolygon((LinearRing) poly.getExteriorRing(), null));
+				Envelope env = prepared.getGeometry().getEnvelopeInternal();
+				// build the lazy point locator now, lookups are done in parallel
+				prepared.covers(FACTORY.createPoint(env.centre()));
+				prepared.getGeometry().setUserData(e.getKey());
+				tree.insert(env, prepared);
+				if (i == main) {
+					mains.put(e.getKey(), prepared);
+				}
+			}
+		}
+		tree.build();
+		
+		Map<String,String[]> res = new ConcurrentHashMap<>();
+		run(threads, () -> IntStream.range(0, table.size()).parallel().forEach(r -> {
+			Geometry geom = table.geometry(r, FACTORY);
+			if (geom.isEmpty()) {
+				return;
+			}
+			String code = normalize(col.value(r));
+			Point p = geom.getInteriorPoint();
+			PreparedGeometry main = mains.get(col.value(r));
+			if (main == null || main.covers(p)) {
+				return;
+			}
+			// smallest outline of another parent enclosing the exclave
+			String found = null;
+			double area = Double.MAX_VALUE;
+			for (Object o: tree.query(p.getEnvelopeInternal())) {
+				PreparedGeometry candidate = (PreparedGeometry) o;
+				String other = (String) candidate.getGeometry().getUserData();
+				double a = candidate.getGeometry().getArea();
+				if (!other.equals(col.value(r)) && a < area && candidate.covers(p)) {
+					found = normalize(other);
+					area = a;
+				}
+			}
+			if (found != null) {
+				res.put(table.sector(r), new String[] { code, found });
+			}
+		}));
+		return new ParentCheck(link, new TreeMap<>(res));
+	}
+	
+	/**
+	 * Get the number of sectors with a wrong parent
+	 * 
+	 * @return number of sectors
+	 */
+	public int size() {
+		return mismatches.size();
+	}
+	
+	/**
+	 * Get the parent of a sector, inferred from the geometry when the 
+	 * claimed parent is wrong and the right one was found
+	 * 
+	 * @param sector sector code
+	 * @param col projected column of the parent code
+	 * @param claimed claimed parent code, as in the DBF
+	 * @return parent code
+	 */
+	public String parent(String sector, int col, String claimed) {
+		if (col != link) {
+			return claimed;
+		}
+		String[] m = mismatches.get(sector);
+		return (m != null && !m[1].isEmpty()) ? m[1] : claimed;
+	}
+	
+	/**
+	 * Write the mismatches as CSV: sector, claimed parent, found parent
+	 * 
+	 * @param w writer
+	 * @throws IOException 
+	 */
+	public void write(Writer w) throws IOException {
+		for (Map.Entry<String,String[]> e: mismatches.entrySet()) {
+			w.write(e.getKey() + "," + e.getValue()[0] + "," + e.getValue()[1] + "\n");
+		}
+		w.flush();
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param link projected column of the parent code
+	 * @param mismatches claimed and found parent per sector
+	 */
+	private ParentCheck(int link, SortedMap<String,String[]> mismatches) {
+		this.link = link;
+		this.mismatches = mismatches;
+	}
+}
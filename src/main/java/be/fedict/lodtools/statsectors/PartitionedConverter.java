@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileReader;
+import org.geotools.data.shapefile.files.ShpFiles;
+import org.geotools.data.shapefile.shp.ShapefileReader;
+
+/**
+ * Convert ranges of shapefile records in parallel.
+ *
+ * The record ranges are taken from the .SHX index, each range is converted
+ * to N-Triples by its own reader on a fork/join pool, and the results are
+ * written in record order.
+ * The output is therefore the same as the single-threaded conversion.
+ * The records are read with GeoTools, or with a cursor of the 
+ * memory-mapped reader.
+ * 
+ * Parents of the sectors are written by each partition the first time it 
+ * encounters them, and the writer drops the ones already written by
+ * an earlier partition.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class PartitionedConverter {
+	private final static GeometryFactory GEOM_FAC = new GeometryFactory();
+
+	/* Approximate size of one partition in the .SHP file */
+	private final static long PART_SIZE = 4L * 1024 * 1024;
+
+	private final MappedShapefile shp;
+	private final File file;
+	private final Charset charset;
+	private final ShxIndex index;
+	private final int threads;
+	private final int decimals;
+	private final Reprojection proj;
+	private final ParentCheck parents;
+	private final Projection cols;
+	private final Hierarchy hierarchy;
+	private final Projection hcols;
+	private final Metrics metrics;
+
+	/**
+	 * N-Triples of a range of records, with the parents as separate segments
+	 */
+	private static class Chunk {
+		private final byte[] bytes;
+		private final List<int[]> segments;
+		private final List<String> codes;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param bytes N-Triples
+		 * @param segments start, end, level and number of triples per parent
+		 * @param codes code per parent
+		 */
+		public Chunk(byte[] bytes, List<int[]> segments, List<String> codes) {
+			this.bytes = bytes;
+			this.segments = segments;
+			this.codes = codes;
+		}
+	}
+	
+	/**
+	 * Records of one partition, skipping deleted records
+	 */
+	private interface Records extends Closeable {
+		/**
+		 * Move to the next record of the partition
+		 * 
+		 * @return false at the end of the partition
+		 * @throws IOException 
+		 */
+		boolean next() throws IOException;
+		
+		/**
+		 * Get the value of a DBF column of the current record
+		 * 
+		 * @param col column index in the DBF
+		 * @return string value
+		 * @throws IOException 
+		 */
+		String text(int col) throws IOException;
+		
+		/**
+		 * Encode the geometry of the current record as WKT
+		 * 
+		 * @param wkt WKT encoder
+		 * @throws IOException 
+		 */
+		void encode(WktEncoder wkt) throws IOException;
+	}
+	
+	/**
+	 * Records read by a cursor of the memory-mapped shapefile
+	 */
+	private class MappedRecords implements Records {
+		private final MappedShapefile.Cursor cursor = shp.cursor();
+		private final int end;
+		
+		@Override
+		public boolean next() {
+			while (cursor.next() && cursor.record() < end) {
+				if (!cursor.deleted()) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public String text(int col) {
+			return cursor.text(col).toString();
+		}
+		
+		@Override
+		public void encode(WktEncoder wkt) {
+			wkt.encode(cursor);
+		}
+		
+		@Override
+		public void close() {
+		}
+		
+		/**
+		 * Constructor
+		 *
+		 * @param start first record, 0-based
+		 * @param end last record, exclusive
+		 */
+		public MappedRecords(int start, int end) {
+			this.end = end;
+			cursor.goTo(start);
+		}
+	}
+	
+	/**
+	 * Records read by GeoTools, positioned using the .SHX index
+	 */
+	private class GeoToolsRecords implements Records {
+		private final ShpFiles files;
+		private ShapefileReader shpReader;
+		private DbaseFileReader dbfReader;
+		private DbaseFileReader.Row row;
+		private Object shape;
+		private int record;
+		private final int end;
+		
+		@Override
+		public boolean next() throws IOException {
+			while (record < end) {
+				record++;
+				shape = shpReader.nextRecord().shape();
+				row = dbfReader.readRow();
+				if (!row.isDeleted()) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public String text(int col) throws IOException {
+			return row.read(col).toString();
+		}
+		
+		@Override
+		public void encode(WktEncoder wkt) {
+			wkt.encode((Geometry) shape);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				if (shpReader != null) {
+					shpReader.close();
+				}
+				if (dbfReader != null) {
+					dbfReader.close();
+				}
+			} finally {
+				files.dispose();
+			}
+		}
+		
+		/**
+		 * Constructor
+		 *
+		 * @param start first record, 0-based
+		 * @param end last record, exclusive
+		 * @throws IOException
+		 */
+		public GeoToolsRecords(int start, int end) throws IOException {
+			this.files = new ShpFiles(file);
+			this.record = start;
+			this.end = end;
+			try {
+				shpReader = new ShapefileReader(files, false, true, GEOM_FAC);
+				dbfReader = new DbaseFileReader(files, true, charset);
+				shpReader.goTo(index.offset(start));
+				// DBF record numbers start at 1
+				dbfReader.goTo(start + 1);
+			} catch (IOException ioe) {
+				close();
+				throw ioe;
+			}
+		}
+	}
+	
+	/**
+	 * Open the records of a partition
+	 *
+	 * @param start first record, 0-based
+	 * @param end last record, exclusive
+	 * @return records
+	 * @throws IOException
+	 */
+	private Records open(int start, int end) throws IOException {
+		return (shp != null) ? new MappedRecords(start, end) 
+							: new GeoToolsRecords(start, end);
+	}
+
+	/**
+	 * Read the header of the DBF file with GeoTools
+	 *
+	 * @param file shapefile
+	 * @param charset character set of the DBF file
+	 * @return DBF header
+	 * @throws IOException
+	 */
+	private static DbaseFileHeader header(File file, Charset charset) 
+														throws IOException {
+		ShpFiles files = new ShpFiles(file);
+		DbaseFileReader dbf = null;
+		try {
+			dbf = new DbaseFileReader(files, false, charset);
+			return dbf.getHeader();
+		} finally {
+			if (dbf != null) {
+				dbf.close();
+			}
+			files.dispose();
+		}
+	}
+	
+	/**
+	 * Write a chunk, skipping the parents written before
+	 *
+	 * @param chunk chunk
+	 * @param out output stream
+	 * @throws IOException
+	 */
+	private void write(Chunk chunk, OutputStream out) throws IOException {
+		int pos = 0;
+		long triples = 0;
+		for (int i = 0; i < chunk.segments.size(); i++) {
+			int[] seg = chunk.segments.get(i);
+			out.write(chunk.bytes, pos, seg[0] - pos);
+			if (hierarchy.claim(seg[2], chunk.codes.get(i))) {
+				out.write(chunk.bytes, seg[0], seg[1] - seg[0]);
+				triples += seg[3];
+			}
+			pos = seg[1];
+		}
+		out.write(chunk.bytes, pos, chunk.bytes.length - pos);
+		if (chunk.bytes.length > 0) {
+			metrics.firstTriple();
+		}
+		metrics.count("triples", triples);
+	}
+
+	/**
+	 * Convert a range of records to N-Triples
+	 */
+	private class Partition extends RecursiveTask<Chunk> {
+		private final int start;
+		private final int end;
+
+		@Override
+		protected Chunk compute() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			List<int[]> segments = new ArrayList<>();
+			List<String> codes = new ArrayList<>();
+			Hierarchy local = (hierarchy != null) ? new Hierarchy() : null;
+			String[] row = (hcols != null) ? new String[hcols.size()] : null;
+			WktEncoder wkt = new WktEncoder(decimals, proj);
+			long read = 0, encode = 0, emit = 0;
+			long feats = 0, triples = 0;
+
+			try (Records records = open(start, end)) {
+				Writer w = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+				WktNTriplesWriter writer = new WktNTriplesWriter(w);
+				writer.startRDF();
+				
+				long t0 = System.nanoTime();
+				while (records.next()) {
+					String sector = records.text(cols.index(Main.COL_SECTOR));
+					String nuts3 = Main.parent(parents, sector, Main.COL_NUTS3,
+									records.text(cols.index(Main.COL_NUTS3)));
+					String nis = Main.parent(parents, sector, Main.COL_NIS,
+									records.text(cols.index(Main.COL_NIS)));
+					String nameNl = records.text(cols.index(Main.COL_NAME_NL));
+					String nameFr = records.text(cols.index(Main.COL_NAME_FR));
+					long t1 = System.nanoTime();
+					records.encode(wkt);
+					long t2 = System.nanoTime();
+					triples += Main.toRDF(writer, sector, nuts3, nis, 
+												nameNl, nameFr, wkt);
+					if (local != null) {
+						for (int i = 0; i < row.length; i++) {
+							row[i] = records.text(hcols.index(i));
+						}
+						for (int l = 0; l < Hierarchy.LEVELS; l++) {
+							String code = Hierarchy.code(l, nis, nuts3, row);
+							if (local.claim(l, code)) {
+								w.flush();
+								int pos = bytes.size();
+								int n = Hierarchy.toRDF(writer, l, nis, nuts3, row);
+								w.flush();
+								segments.add(new int[] { pos, bytes.size(), l, n });
+								codes.add(code);
+							}
+						}
+					}
+					long t3 = System.nanoTime();
+					read += t1 - t0;
+					encode += t2 - t1;
+					emit += t3 - t2;
+					feats++;
+					t0 = t3;
+				}
+				writer.endRDF();
+				w.flush();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			metrics.time("read", read);
+			metrics.time("wkt", encode);
+			metrics.time("emit", emit);
+			metrics.count("features", feats);
+			metrics.count("triples", triples);
+			return new Chunk(bytes.toByteArray(), segments, codes);
+		}
+
+		/**
+		 * Constructor
+		 *
+		 * @param start first record, 0-based
+		 * @param end last record, exclusive
+		 */
+		public Partition(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Convert the shapefile and write the N-Triples to an output stream.
+	 * Only a limited number of partitions is kept in memory at any time.
+	 *
+	 * @param out output stream
+	 * @throws IOException
+	 */
+	public void toRDF(OutputStream out) throws IOException {
+		int n = index.size();
+		long size = (n > 0) ? index.offset(n - 1) + index.length(n - 1) : 0;
+		int parts = (int) Math.max(threads * 4L, size / PART_SIZE);
+		int[] starts = index.split(parts);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+		try {
+			int p = 0;
+			while (p < starts.length - 1 || !pending.isEmpty()) {
+				// keep all workers busy, but don't run too far ahead of the writer
+				while (p < starts.length - 1 && pending.size() < threads * 2) {
+					if (starts[p] < starts[p + 1]) {
+						pending.add(pool.submit(new Partition(starts[p], starts[p + 1])));
+					}
+					p++;
+				}
+				if (!pending.isEmpty()) {
+					Chunk res = pending.poll().join();
+					long t0 = System.nanoTime();
+					write(res, out);
+					metrics.time("write", System.nanoTime() - t0);
+				}
+			}
+		} catch (UncheckedIOException ioe) {
+			throw ioe.getCause();
+		} finally {
+			pool.shutdownNow();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param shp memory-mapped shapefile
+	 * @param threads number of threads
+	 * @param decimals maximum number of decimals in WKT, negative for all
+	 * @param proj reprojection of the coordinates, or null
+	 * @param parents parents inferred from the geometry, or null
+	 * @param hierarchy parents already written, or null to skip the parents
+	 * @param metrics metrics of the conversion
+	 * @throws IOException
+	 */
+	public PartitionedConverter(MappedShapefile shp, int threads, int decimals,
+				Reprojection proj, ParentCheck parents, Hierarchy hierarchy,
+									Metrics metrics) throws IOException {
+		this.shp = shp;
+		this.file = null;
+		this.charset = null;
+		this.index = shp.index();
+		this.threads = threads;
+		this.decimals = decimals;
+		this.proj = proj;
+		this.parents = parents;
+		this.cols = Main.COLUMNS.bind(shp);
+		this.hierarchy = hierarchy;
+		this.hcols = (hierarchy != null) ? Hierarchy.COLUMNS.bind(shp) : null;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Constructor, reading the partitions with GeoTools
+	 *
+	 * @param file shapefile
+	 * @param charset character set of the DBF file
+	 * @param threads number of threads
+	 * @param decimals maximum number of decimals in WKT, negative for all
+	 * @param proj reprojection of the coordinates, or null
+	 * @param parents parents inferred from the geometry, or null
+	 * @param hierarchy parents already written, or null to skip the parents
+	 * @param metrics metrics of the conversion
+	 * @throws IOException
+	 */
+	public PartitionedConverter(File file, Charset charset, int threads, 
+				int decimals, Reprojection proj, ParentCheck parents, 
+						Hierarchy hierarchy, Metrics metrics) throws IOException {
+		this.shp = null;
+		this.file = file;
+		this.charset = charset;
+		this.index = new ShxIndex(ShxIndex.sibling(file, "shx"));
+		this.threads = threads;
+		this.decimals = decimals;
+		this.proj = proj;
+		this.parents = parents;
+		this.cols = Main.COLUMNS.bind(header(file, charset));
+		this.hierarchy = hierarchy;
+		this.hcols = (hierarchy != null) 
+					? Hierarchy.COLUMNS.bind(header(file, charset)) : null;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param shp memory-mapped shapefile
+	 * @param threads number of threads
+	 * @param decimals maximum number of decimals in WKT, negative for all
+	 * @param proj reprojection of the coordinates, or null
+	 * @param parents parents inferred from the geometry, or null
+	 * @throws IOException
+	 */
+	public PartitionedConverter(MappedShapefile shp, int threads, int decimals,
+				Reprojection proj, ParentCheck parents) throws IOException {
+		this(shp, threads, decimals, proj, parents, null, Main.METRICS);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param shp memory-mapped shapefile
+	 * @param threads number of threads
+	 * @param decimals maximum number of decimals in WKT, negative for all
+	 * @param proj reprojection of the coordinates, or null
+	 * @throws IOException
+	 */
+	public PartitionedConverter(MappedShapefile shp, int threads, int decimals,
+									Reprojection proj) throws IOException {
+		this(shp, threads, decimals, proj, null);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.IOException;
+
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Columns needed from the shapefile, resolved once to attribute indices.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Projection {
+	private final String[] names;
+	private final int[] idx;
+
+	/**
+	 * Get the names of the projected columns
+	 *
+	 * @return column names
+	 */
+	public String[] names() {
+		return names.clone();
+	}
+
+	/**
+	 * Get the number of projected columns
+	 *
+	 * @return number of columns
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Get the attribute index of a projected column
+	 *
+	 * @param col position in the projection
+	 * @return attribute index
+	 */
+	public int index(int col) {
+		return idx[col];
+	}
+
+	/**
+	 * Resolve the columns against the schema of a feature type
+	 *
+	 * @param type feature type
+	 * @return bound projection
+	 * @throws IOException when a column is missing
+	 */
+	public Projection bind(SimpleFeatureType type) throws IOException {
+		int[] res = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			res[i] = type.indexOf(names[i]);
+			if (res[i] < 0) {
+				throw new IOException("Column not found: " + names[i]);
+			}
+		}
+		return new Projection(names, res);
+	}
+
+	/**
+	 * Resolve the columns against the header of a DBF file
+	 *
+	 * @param header DBF header
+	 * @return bound projection
+	 * @throws IOException when a column is missing
+	 */
+	public Projection bind(DbaseFileHeader header) throws IOException {
+		int[] res = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			res[i] = -1;
+			for (int j = 0; j < header.getNumFields(); j++) {
+				if (header.getFieldName(j).equals(names[i])) {
+					res[i] = j;
+				}
+			}
+			if (res[i] < 0) {
+				throw new IOException("Column not found: " + names[i]);
+			}
+		}
+		return new Projection(names, res);
+	}
+
+	/**
+	 * Resolve the columns against the DBF of a memory-mapped shapefile
+	 *
+	 * @param shp shapefile
+	 * @return bound projection
+	 * @throws IOException when a column is missing
+	 */
+	public Projection bind(MappedShapefile shp) throws IOException {
+		int[] res = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			res[i] = shp.column(names[i]);
+			if (res[i] < 0) {
+				throw new IOException("Column not found: " + names[i]);
+			}
+		}
+		return new Projection(names, res);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param names column names
+	 * @param idx attribute indices
+	 */
+	private Projection(String[] names, int[] idx) {
+		this.names = names;
+		this.idx = idx;
+	}
+
+	/**
+	 * Constructor, creates an unbound projection
+	 *
+	 * @param names column names
+	 */
+	public Projection(String... names) {
+		this(names.clone(), null);
+	}
+}
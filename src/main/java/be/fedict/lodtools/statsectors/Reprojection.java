@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Transform coordinates from one CRS to another.
+ *
+ * The math transform is resolved only once per pair of CRS and shared
+ * between threads.
+ * Coordinates are transformed in batches of primitive doubles,
+ * large batches are split over multiple threads.
+ *
+ * Lambert72 and WGS84 are pre-resolved, so the EPSG database is only started
+ * for other CRS, or when explicitly requested.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Reprojection {
+	public final static String LAMBERT72 = "EPSG:31300";
+	public final static String WGS84 = "EPSG:4326";
+	
+	private final static String PREF_EPSG = "http://www.opengis.net/def/crs/EPSG/0/";
+	// WGS84 with longitude first
+	private final static String CRS84 = "http://www.opengis.net/def/crs/OGC/1.3/CRS84";
+	
+	// number of points transformed by one thread
+	private final static int BATCH = 16_384;
+	
+	// Belge 1972 / Belge Lambert 72, with the BD72 to WGS 84 (3) datum shift
+	private final static String LAMBERT72_WKT = 
+		"PROJCS[\"Belge 1972 / Belge Lambert 72\", "
+		+ "GEOGCS[\"Belge 1972\", "
+		+ "DATUM[\"Reseau National Belge 1972\", "
+		+ "SPHEROID[\"International 1924\", 6378388.0, 297.0, AUTHORITY[\"EPSG\",\"7022\"]], "
+		+ "TOWGS84[-106.8686, 52.2978, -103.7239, 0.3366, -0.457, 1.8422, -1.2747], "
+		+ "AUTHORITY[\"EPSG\",\"6313\"]], "
+		+ "PRIMEM[\"Greenwich\", 0.0, AUTHORITY[\"EPSG\",\"8901\"]], "
+		+ "UNIT[\"degree\", 0.017453292519943295], "
+		+ "AXIS[\"Geodetic longitude\", EAST], AXIS[\"Geodetic latitude\", NORTH], "
+		+ "AUTHORITY[\"EPSG\",\"4313\"]], "
+		+ "PROJECTION[\"Lambert_Conformal_Conic_2SP_Belgium\", AUTHORITY[\"EPSG\",\"9803\"]], "
+		+ "PARAMETER[\"central_meridian\", 4.356939722222222], "
+		+ "PARAMETER[\"latitude_of_origin\", 90.0], "
+		+ "PARAMETER[\"standard_parallel_1\", 49.833333333333336], "
+		+ "PARAMETER[\"false_easting\", 150000.01256], "
+		+ "PARAMETER[\"false_northing\", 5400088.4378], "
+		+ "PARAMETER[\"scale_factor\", 1.0], "
+		+ "PARAMETER[\"standard_parallel_2\", 51.16666666666667], "
+		+ "UNIT[\"m\", 1.0], "
+		+ "AXIS[\"Easting\", EAST], AXIS[\"Northing\", NORTH], "
+		+ "AUTHORITY[\"EPSG\",\"31300\"]]";
+	
+	private final static Map<String,Reprojection> CACHE = new ConcurrentHashMap<>();
+	
+	private static volatile boolean epsg = false;
+	
+	private final MathTransform transform;
+	private final String iri;
+
+	/**
+	 * Copy coordinates of a geometry from or to an array of doubles
+	 */
+	private static class Copier implements CoordinateSequenceFilter {
+		private final double[] pts;
+		private final boolean write;
+		private int pos = 0;
+
+		@Override
+		public void filter(CoordinateSequence seq, int i) {
+			if (write) {
+				seq.setOrdinate(i, CoordinateSequence.X, pts[pos++]);
+				seq.setOrdinate(i, CoordinateSequence.Y, pts[pos++]);
+			} else {
+				pts[pos++] = seq.getX(i);
+				pts[pos++] = seq.getY(i);
+			}
+		}
+
+		@Override
+		public boolean isDone() {
+			return false;
+		}
+
+		@Override
+		public boolean isGeometryChanged() {
+			return write;
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param pts array of x,y values
+		 * @param write true to write to the geometry, false to read from it
+		 */
+		public Copier(double[] pts, boolean write) {
+			this.pts = pts;
+			this.write = write;
+		}
+	}
+	
+	/**
+	 * Get the IRI of a CRS, to be used in a GeoSPARQL WKT literal
+	 * 
+	 * @param code CRS code
+	 * @return IRI as string
+	 */
+	private static String toIRI(String code) {
+		if (code.equals(WGS84)) {
+			return CRS84;
+		}
+		return PREF_EPSG + code.substring(code.indexOf(':') + 1);
+	}
+	
+	/**
+	 * Always use the EPSG database, also for the pre-resolved CRS.
+	 * Affects all reprojections requested afterwards, also for pairs of CRS
+	 * already requested: transforms are cached per setting.
+	 * 
+	 * @param use true to use the EPSG database
+	 */
+	public static void useEpsg(boolean use) {
+		epsg = use;
+	}
+	
+	/**
+	 * Get a CRS with longitude first, pre-resolved when possible
+	 * 
+	 * @param code CRS code
+	 * @param useEpsg true to always use the EPSG database
+	 * @return CRS
+	 * @throws FactoryException 
+	 */
+	private static CoordinateReferenceSystem decode(String code, boolean useEpsg) 
+												throws FactoryException {
+		if (!useEpsg) {
+			if (code.equals(LAMBERT72)) {
+				return CRS.parseWKT(LAMBERT72_WKT);
+			}
+			if (code.equals(WGS84)) {
+				return DefaultGeographicCRS.WGS84;
+			}
+		}
+		return CRS.decode(code, true);
+	}
+	
+	/**
+	 * Get a (cached) reprojection
+	 * 
+	 * @param source CRS code of the source, e.g. EPSG:31300
+	 * @param target CRS code of the target
+	 * @return reprojection
+	 * @throws FactoryException 
+	 */
+	public static Reprojection get(String source, String target) 
+												throws FactoryException {
+		boolean useEpsg = epsg;
+		String key = source + ">" + target + (useEpsg ? " epsg" : "");
+		Reprojection proj = CACHE.get(key);
+		if (proj == null) {
+			MathTransform transform = CRS.findMathTransform(
+				decode(source, useEpsg), decode(target, useEpsg), false);
+			proj = new Reprojection(transform, toIRI(target));
+			Reprojection prev = CACHE.putIfAbsent(key, proj);
+			if (prev != null) {
+				proj = prev;
+			}
+		}
+		return proj;
+	}
+	
+	/**
+	 * Get the IRI of the target CRS
+	 * 
+	 * @return IRI as string
+	 */
+	public String getIRI() {
+		return iri;
+	}
+
+	/**
+	 * Check if the transformation leaves the coordinates unchanged
+	 * 
+	 * @return true if source and target are the same
+	 */
+	public boolean isIdentity() {
+		return transform.isIdentity();
+	}
+	
+	/**
+	 * Transform a batch of points in place
+	 * 
+	 * @param pts x,y values
+	 * @param num number of points
+	 * @throws TransformException 
+	 */
+	public void transform(double[] pts, int num) throws TransformException {
+		if (transform.isIdentity() || num == 0) {
+			return;
+		}
+		if (num <= BATCH) {
+			transform.transform(pts, 0, pts, 0, num);
+			return;
+		}
+		try {
+			IntStream.range(0, (num + BATCH - 1) / BATCH).parallel().forEach(b -> {
+				int off = b * BATCH;
+				try {
+					transform.transform(pts, off * 2, pts, off * 2, 
+											Math.min(BATCH, num - off));
+				} catch (TransformException te) {
+					throw new IllegalStateException(te);
+				}
+			});
+		} catch (IllegalStateException ise) {
+			if (ise.getCause() instanceof TransformException) {
+				throw (TransformException) ise.getCause();
+			}
+			throw ise;
+		}
+	}
+	
+	/**
+	 * Transform a geometry
+	 * 
+	 * @param geom geometry
+	 * @return transformed copy of the geometry, or the same geometry
+	 * @throws TransformException 
+	 */
+	public Geometry transform(Geometry geom) throws TransformException {
+		if (transform.isIdentity()) {
+			return geom;
+		}
+		int num = geom.getNumPoints();
+		double[] pts = new double[num * 2];
+		geom.apply(new Copier(pts, false));
+		
+		transform(pts, num);
+		
+		Geometry copy = (Geometry) geom.clone();
+		copy.apply(new Copier(pts, true));
+		return copy;
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param transform math transform
+	 * @param iri IRI of the target CRS
+	 */
+	private Reprojection(MathTransform transform, String iri) {
+		this.transform = transform;
+		this.iri = iri;
+	}
+}
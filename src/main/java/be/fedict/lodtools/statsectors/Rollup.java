@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Union sector geometries into the administrative hierarchy.
+ *
+ * Sectors are unioned per municipality, and every higher level is unioned
+ * from the results of the level below, not from the sectors again.
+ * Units are grouped on the dictionary codes of the columns of the sector
+ * table, so grouping is a scan over int arrays, and the geometry of a sector
+ * is only built when its municipality is unioned.
+ * Units without a parent on some level (e.g. Brussels has no province)
+ * are carried to the next level.
+ * The units of one level are unioned in parallel.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class Rollup {
+	private final GeometryFactory factory;
+	private final SectorTable table;
+	private final SectorTable.Column[] columns;
+
+	/**
+	 * Unit on a level, with a sector to look up the codes of its parents
+	 */
+	private static class Unit {
+		private final Geometry geom;
+		private final int row;
+
+		/**
+		 * Constructor
+		 *
+		 * @param geom geometry
+		 * @param row first sector of the unit
+		 */
+		public Unit(Geometry geom, int row) {
+			this.geom = geom;
+			this.row = row;
+		}
+	}
+
+	/**
+	 * Union a list of geometries
+	 *
+	 * @param geoms geometries
+	 * @return union
+	 */
+	private Geometry union(List<Geometry> geoms) {
+		// note: the collection may be invalid, e.g. with overlapping polygons
+		return factory.buildGeometry(geoms).union();
+	}
+
+	/**
+	 * Group items on a code with a counting sort
+	 *
+	 * @param codes code of each item, -1 to skip the item
+	 * @param cardinality number of codes
+	 * @return indexes of the items per code, in order
+	 */
+	private static int[][] group(int[] codes, int cardinality) {
+		int[] count = new int[cardinality];
+		for (int c: codes) {
+			if (c >= 0) {
+				count[c]++;
+			}
+		}
+		int[][] groups = new int[cardinality][];
+		for (int c = 0; c < cardinality; c++) {
+			groups[c] = new int[count[c]];
+			count[c] = 0;
+		}
+		for (int i = 0; i < codes.length; i++) {
+			int c = codes[i];
+			if (c >= 0) {
+				groups[c][count[c]++] = i;
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Get the codes of a column, empty values become -1 if requested
+	 *
+	 * @param col column
+	 * @param rows rows
+	 * @param skipEmpty true to skip empty values
+	 * @return code per row
+	 */
+	private static int[] codes(SectorTable.Column col, int[] rows, boolean skipEmpty) {
+		int[] codes = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			int c = col.code(rows[i]);
+			codes[i] = (skipEmpty && col.decode(c).isEmpty()) ? -1 : c;
+		}
+		return codes;
+	}
+
+	/**
+	 * Union all levels, starting with the municipalities
+	 *
+	 * @return list of geometries per key, one map per level
+	 */
+	public List<SortedMap<String,Geometry>> union() {
+		List<SortedMap<String,Geometry>> res = new ArrayList<>();
+		union((level, l) -> res.add(level));
+		return res;
+	}
+	
+	/**
+	 * Union all levels, starting with the municipalities, and pass each
+	 * level to a consumer as soon as it is finished.
+	 * Only the level being built and the level below are kept.
+	 *
+	 * @param consumer receives the geometries per key and the level number
+	 */
+	public void union(ObjIntConsumer<SortedMap<String,Geometry>> consumer) {
+		// the sectors are the units below the municipalities
+		int[] rows = IntStream.range(0, table.size()).toArray();
+		List<Unit> units = null;
+		
+		for (int l = 0; l < columns.length; l++) {
+			SectorTable.Column col = columns[l];
+			int[] codes = codes(col, rows, l > 0);
+			int[][] groups = group(codes, col.cardinality());
+			
+			Geometry[] geoms = new Geometry[groups.length];
+			List<Unit> below = units;
+			IntStream.range(0, groups.length).parallel()
+				.filter(c -> groups[c].length > 0)
+				.forEach(c -> {
+					List<Geometry> parts = new ArrayList<>(groups[c].length);
+					for (int i: groups[c]) {
+						parts.add((below == null) ? table.geometry(i, factory) 
+												: below.get(i).geom);
+					}
+					geoms[c] = union(parts);
+				});
+			
+			SortedMap<String,Integer> sorted = new TreeMap<>();
+			for (int c = 0; c < groups.length; c++) {
+				if (groups[c].length > 0) {
+					sorted.put(col.decode(c), c);
+				}
+			}
+			SortedMap<String,Geometry> level = new TreeMap<>();
+			List<Unit> next = new ArrayList<>();
+			for (int i = 0; i < codes.length; i++) {
+				if (codes[i] < 0) {
+					next.add(below.get(i));
+				}
+			}
+			for (int c: sorted.values()) {
+				level.put(col.decode(c), geoms[c]);
+				next.add(new Unit(geoms[c], rows[groups[c][0]]));
+			}
+			consumer.accept(level, l);
+			
+			units = next;
+			rows = new int[units.size()];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = units.get(i).row;
+			}
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param factory geometry factory
+	 * @param table sectors
+	 * @param columns municipality, followed by the columns of the higher levels
+	 */
+	public Rollup(GeometryFactory factory, SectorTable table, 
+											SectorTable.Column... columns) {
+		this.factory = factory;
+		this.table = table;
+		this.columns = columns;
+	}
+}
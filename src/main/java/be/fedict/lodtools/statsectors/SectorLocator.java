@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Charsets;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Reverse geocoding of points to statistical sectors.
+ *
+ * The sectors are stored in an STR-tree, the candidates of a lookup are
+ * tested with prepared geometries. 
+ * Lookups are thread-safe once the locator has been created.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class SectorLocator {
+	private final static Logger LOG = Logger.getLogger(SectorLocator.class.getName());
+	
+	// number of CSV lines processed in parallel
+	private final static int CHUNK = 100_000;
+	
+	private final GeometryFactory factory = new GeometryFactory();
+	private final STRtree tree = new STRtree();
+	private final int size;
+	
+	/**
+	 * Statistical sector, with the IRIs of the sector and its parents
+	 */
+	public static class Sector {
+		private final PreparedGeometry geom;
+		private final Resource sector;
+		private final IRI nis;
+		private final IRI nuts3;
+
+		/**
+		 * Get the IRI of the sector
+		 * 
+		 * @return IRI
+		 */
+		public Resource getSector() {
+			return sector;
+		}
+
+		/**
+		 * Get the IRI of the municipality
+		 * 
+		 * @return IRI
+		 */
+		public IRI getNis() {
+			return nis;
+		}
+
+		/**
+		 * Get the IRI of the NUTS3 region
+		 * 
+		 * @return IRI
+		 */
+		public IRI getNuts3() {
+			return nuts3;
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param geom prepared geometry
+		 * @param sector sector IRI
+		 * @param nis municipality IRI
+		 * @param nuts3 NUTS3 IRI
+		 */
+		public Sector(PreparedGeometry geom, Resource sector, IRI nis, IRI nuts3) {
+			this.geom = geom;
+			this.sector = sector;
+			this.nis = nis;
+			this.nuts3 = nuts3;
+		}
+	}
+	
+	/**
+	 * Find the sector of a point
+	 * 
+	 * @param x X coordinate, in the CRS of the shapefile
+	 * @param y Y coordinate
+	 * @return sector or null if not found
+	 */
+	public Sector locate(double x, double y) {
+		Point p = factory.createPoint(new Coordinate(x, y));
+		for (Object o: tree.query(new Envelope(x, x, y, y))) {
+			Sector s = (Sector) o;
+			if (s.geom.covers(p)) {
+				return s;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the number of sectors
+	 * 
+	 * @return number of sectors
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Format the result of a lookup as CSV line
+	 * 
+	 * @param id point identifier
+	 * @param s sector or null
+	 * @return CSV line
+	 */
+	private static String format(String id, Sector s) {
+		if (s == null) {
+			return id + ",,,";
+		}
+		return id + "," + s.sector.stringValue() + "," 
+			+ ((s.nis != null) ? s.nis.stringValue() : "") + "," 
+			+ ((s.nuts3 != null) ? s.nuts3.stringValue() : "");
+	}
+	
+	/**
+	 * Locate a chunk of CSV lines in parallel
+	 * 
+	 * @param lines lines with id,x,y
+	 * @param pool thread pool
+	 * @param proj transformation of the points to the CRS of the shapefile, or null
+	 * @return CSV output lines
+	 * @throws IOException 
+	 */
+	private String[] locate(List<String> lines, ForkJoinPool pool, 
+										Reprojection proj) throws IOException {
+		int n = lines.size();
+		String[] ids = new String[n];
+		double[] pts = new double[n * 2];
+		String[] res = new String[n];
+		try {
+			pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+				String line = lines.get(i);
+				int c1 = line.indexOf(',');
+				int c2 = line.indexOf(',', c1 + 1);
+				ids[i] = (c1 >= 0) ? line.substring(0, c1) : line;
+				try {
+					pts[i * 2] = Double.parseDouble(line.substring(c1 + 1, c2));
+					pts[i * 2 + 1] = Double.parseDouble(line.substring(c2 + 1));
+				} catch (IndexOutOfBoundsException|NumberFormatException e) {
+					pts[i * 2] = Double.NaN;
+					pts[i * 2 + 1] = Double.NaN;
+				}
+			})).get();
+			if (proj != null) {
+				proj.transform(pts, n);
+			}
+			pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> 
+				res[i] = format(ids[i], Double.isNaN(pts[i * 2]) 
+										? null : locate(pts[i * 2], pts[i * 2 + 1]))
+			)).get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ie);
+		} catch (ExecutionException|TransformException e) {
+			throw new IOException(e);
+		}
+		return res;
+	}
+	
+	/**
+	 * Locate a stream of CSV lines (id,x,y) in batches, in parallel.
+	 * Results are written as id,sector,municipality,NUTS3 in the same order.
+	 * 
+	 * @param in CSV input
+	 * @param out CSV output
+	 * @param threads number of threads
+	 * @param proj transformation of the points to the CRS of the shapefile, or null
+	 * @return number of points
+	 * @throws IOException 
+	 */
+	public long locate(Reader in, Writer out, int threads, Reprojection proj) 
+														throws IOException {
+		BufferedReader r = new BufferedReader(in, 1024 * 1024);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<String> lines = new ArrayList<>(CHUNK);
+		long count = 0;
+		try {
+			String line = r.readLine();
+			while (line != null) {
+				lines.add(line);
+				line = r.readLine();
+				if (lines.size() == CHUNK || line == null) {
+					for (String res: locate(lines, pool, proj)) {
+						out.write(res);
+						out.write('\n');
+					}
+					count += lines.size();
+					lines.clear();
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		out.flush();
+		return count;
+	}
+	
+	/**
+	 * Main
+	 * 
+	 * @param args 
+	 */
+	public static void main(String[] args) {
+		Map<String,String> opts = new HashMap<>();
+		List<String> files = Main.parseArgs(args, opts);
+		
+		if (files.size() != 3) {
+			System.err.println("Usage: [--threads=<n>] [--wgs84] "
+						+ "<SHP input file> <CSV input file> <CSV output file>");
+			System.exit(-1);
+		}
+		int threads = Integer.parseInt(opts.getOrDefault("threads", 
+						String.valueOf(Runtime.getRuntime().availableProcessors())));
+		
+		try (Reader in = new InputStreamReader(
+						new FileInputStream(files.get(1)), Charsets.UTF_8);
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(files.get(2)), Charsets.UTF_8), 1024 * 1024)) {
+			long start = System.nanoTime();
+			SectorLocator locator = new SectorLocator(
+					new MappedShapefile(new File(files.get(0)), Charsets.UTF_8));
+			LOG.log(Level.INFO, "Indexed {0} sectors in {1} s", 
+				new Object[] { locator.size(), (System.nanoTime() - start) / 1e9 });
+			
+			Reprojection proj = opts.containsKey("wgs84") 
+				? Reprojection.get(Reprojection.WGS84, Reprojection.LAMBERT72) 
+				: null;
+			
+			start = System.nanoTime();
+			long n = locator.locate(in, out, threads, proj);
+			double secs = (System.nanoTime() - start) / 1e9;
+			LOG.log(Level.INFO, "Located {0} points in {1} s, {2} points/s", 
+						new Object[] { n, secs, (long) (n / secs) });
+		} catch (IOException ex) {
+			LOG.severe("IO error processing");
+			System.exit(-3);
+		} catch (FactoryException ex) {
+			LOG.severe("Could not find coordinate transformation");
+			System.exit(-4);
+		}
+	}
+	
+	/**
+	 * Constructor, loads the sectors of a sector table
+	 * 
+	 * @param table sectors
+	 */
+	public SectorLocator(SectorTable table) {
+		PreparedGeometryFactory prep = new PreparedGeometryFactory();
+		
+		int n = 0;
+		for (int row = 0; row < table.size(); row++) {
+			MultiPolygon geom = table.geometry(row, factory);
+			if (geom.isEmpty()) {
+				continue;
+			}
+			PreparedGeometry prepared = prep.create(geom);
+			// build the lazy point locator now, so lookups only read
+			Envelope env = geom.getEnvelopeInternal();
+			prepared.covers(factory.createPoint(env.centre()));
+			
+			Sector s = new Sector(prepared,
+				Main.makeURL(Main.PREF_NIS, table.sector(row)),
+				Main.NIS_IRIS.get(table.nis().value(row)),
+				Main.NUTS_IRIS.get(table.nuts3().value(row)));
+			tree.insert(env, s);
+			n++;
+		}
+		tree.build();
+		size = n;
+	}
+	
+	/**
+	 * Constructor, loads the sectors of a shapefile
+	 * 
+	 * @param shp memory-mapped shapefile
+	 * @throws IOException 
+	 */
+	public SectorLocator(MappedShapefile shp) throws IOException {
+		this(new SectorTable(shp));
+	}
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Columnar in-memory table of the sectors of a shapefile, loaded once and
+ * shared by the RDF, KML, union and lookup code, and by the validation,
+ * simplification, lineage and adjacency stages of a conversion.
+ *
+ * Columns with few distinct values (municipality, NUTS3...) are stored as 
+ * a dictionary and an int code per sector, area and perimeter as doubles, 
+ * and the geometries as flat coordinate arrays, which are also used
+ * directly by the simplifier and the WKT encoder.
+ * JTS geometries are only created when requested.
+ * The table is read-only once loaded and all its fields are final, 
+ * so it can be shared between threads.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class SectorTable {
+	/* Optional columns */
+	private final static String GEMEENTE = "Gemeente";
+	private final static String ARROND = "Arrond_nl";
+	private final static String PROV = "Prov_nl";
+	private final static String REG = "Reg_nl";
+	private final static String AREA = "Gis_area_h";
+	private final static String PERIM = "Gis_Perime";
+	
+	private final int rows;
+	private final int[] records;
+	private final String[] sectors;
+	private final String[] namesNl;
+	private final String[] namesFr;
+	private final Column nis;
+	private final Column nuts3;
+	private final Column municipality;
+	private final Column arrondissement;
+	private final Column province;
+	private final Column region;
+	private final Column sector2001;
+	private final Column sector1991;
+	private final Column sector1981;
+	private final double[] area;
+	private final double[] perimeter;
+	
+	/* Flat coordinates of all rings, holes refer to their shell */
+	private final double[] xs;
+	private final double[] ys;
+	private final int positions;
+	private final int[] ringStart;
+	private final int[] ringShell;
+	private final int rings;
+	/* First ring of each row */
+	private final int[] rowRing;
+	
+	/**
+	 * Dictionary-encoded column
+	 */
+	public static class Column {
+		private final String[] dict;
+		private final int[] codes;
+		
+		/**
+		 * Get the value of a row
+		 * 
+		 * @param row row
+		 * @return value
+		 */
+		public String value(int row) {
+			return dict[codes[row]];
+		}
+		
+		/**
+		 * Get the code of the value of a row
+		 * 
+		 * @param row row
+		 * @return code, from 0 to the number of distinct values
+		 */
+		public int code(int row) {
+			return codes[row];
+		}
+		
+		/**
+		 * Get the value of a code
+		 * 
+		 * @param code code
+		 * @return value
+		 */
+		public String decode(int code) {
+			return dict[code];
+		}
+		
+		/**
+		 * Get the number of distinct values
+		 * 
+		 * @return number of values
+		 */
+		public int cardinality() {
+			return dict.length;
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param dict distinct values
+		 * @param codes code per row
+		 */
+		private Column(String[] dict, int[] codes) {
+			this.dict = dict;
+			this.codes = codes;
+		}
+	}
+	
+	/**
+	 * Builds a dictionary-encoded column while loading
+	 */
+	private static class ColumnBuilder {
+		private final int col;
+		private final Map<String,Integer> index = new HashMap<>();
+		private final List<String> dict = new ArrayList<>();
+		private final int[] codes;
+		
+		/**
+		 * Add the value of the current record
+		 * 
+		 * @param cursor cursor
+		 * @param row row
+		 */
+		private void add(MappedShapefile.Cursor cursor, int row) {
+			String val = (col >= 0) ? cursor.text(col).toString() : "";
+			Integer code = index.get(val);
+			if (code == null) {
+				code = dict.size();
+				index.put(val, code);
+				dict.add(val);
+			}
+			codes[row] = code;
+		}
+		
+		/**
+		 * Build the column
+		 * 
+		 * @param rows number of rows
+		 * @return column
+		 */
+		private Column build(int rows) {
+			return new Column(dict.toArray(new String[dict.size()]), 
+								Arrays.copyOf(codes, rows));
+		}
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param col column in the DBF, or -1 if not present
+		 * @param size maximum number of rows
+		 */
+		private ColumnBuilder(int col, int size) {
+			this.col = col;
+			this.codes = new int[size];
+		}
+	}
+	
+	/**
+	 * Parse a numeric column of the current record
+	 * 
+	 * @param cursor cursor
+	 * @param col column in the DBF, or -1 if not present
+	 * @return value or NaN
+	 */
+	private static double number(MappedShapefile.Cursor cursor, int col) {
+		if (col < 0) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(cursor.text(col).toString());
+		} catch (NumberFormatException nfe) {
+			return Double.NaN;
+		}
+	}
+	
+	/**
+	 * Builds the flat coordinate arrays while loading
+	 */
+	private static class RingBuilder {
+		private double[] xs = new double[1 << 16];
+		private double[] ys = new double[1 << 16];
+		private int positions = 0;
+		private int[] ringStart = new int[1024];
+		private int[] ringShell = new int[1024];
+		private int rings = 0;
+		
+		/**
+		 * Copy the rings of the current record to the flat arrays
+		 * 
+		 * @param cursor cursor
+		 */
+		private void add(MappedShapefile.Cursor cursor) {
+			if (!cursor.hasShape()) {
+				return;
+			}
+			cursor.classifyRings();
+			int first = rings;
+			for (int part = 0; part < cursor.numParts(); part++) {
+				int start = cursor.partStart(part);
+				int end = cursor.partStart(part + 1);
+				if (positions + end - start > xs.length) {
+					int len = Math.max(positions + end - start, xs.length * 2);
+					xs = Arrays.copyOf(xs, len);
+					ys = Arrays.copyOf(ys, len);
+				}
+				if (rings + 2 > ringStart.length) {
+					ringStart = Arrays.copyOf(ringStart, ringStart.length * 2);
+					ringShell = Arrays.copyOf(ringShell, ringShell.length * 2);
+				}
+				ringStart[rings] = positions;
+				ringShell[rings] = first + cursor.shellOf(part);
+				rings++;
+				for (int i = start; i < end; i++) {
+					xs[positions] = cursor.x(i);
+					ys[positions] = cursor.y(i);
+					positions++;
+				}
+				ringStart[rings] = positions;
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of rows
+	 * 
+	 * @return number of sectors
+	 */
+	public int size() {
+		return rows;
+	}
+	
+	/**
+	 * Get the record number in the shapefile
+	 * 
+	 * @param row row
+	 * @return record number, 0-based
+	 */
+	public int record(int row) {
+		return records[row];
+	}
+	
+	/**
+	 * Get the sector code
+	 * 
+	 * @param row row
+	 * @return sector code
+	 */
+	public String sector(int row) {
+		return sectors[row];
+	}
+	
+	/**
+	 * Get the dutch name of the sector
+	 * 
+	 * @param row row
+	 * @return name
+	 */
+	public String nameNl(int row) {
+		return namesNl[row];
+	}
+	
+	/**
+	 * Get the french name of the sector
+	 * 
+	 * @param row row
+	 * @return name
+	 */
+	public String nameFr(int row) {
+		return namesFr[row];
+	}
+	
+	/**
+	 * Get the NIS codes of the municipalities
+	 * 
+	 * @return column
+	 */
+	public Column nis() {
+		return nis;
+	}
+	
+	/**
+	 * Get the NUTS3 codes
+	 * 
+	 * @return column
+	 */
+	public Column nuts3() {
+		return nuts3;
+	}
+	
+	/**
+	 * Get the dutch names of the municipalities
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column municipality() {
+		return municipality;
+	}
+	
+	/**
+	 * Get the dutch names of the arrondissements
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column arrondissement() {
+		return arrondissement;
+	}
+	
+	/**
+	 * Get the dutch names of the provinces
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column province() {
+		return province;
+	}
+	
+	/**
+	 * Get the dutch names of the regions
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column region() {
+		return region;
+	}
+	
+	/**
+	 * Get the codes of the sectors in the 2001 census
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column sector2001() {
+		return sector2001;
+	}
+	
+	/**
+	 * Get the codes of the sectors in the 1991 census
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column sector1991() {
+		return sector1991;
+	}
+	
+	/**
+	 * Get the codes of the sectors in the 1981 census
+	 * 
+	 * @return column, empty values if not present in the shapefile
+	 */
+	public Column sector1981() {
+		return sector1981;
+	}
+	
+	/**
+	 * Get the area
+	 * 
+	 * @param row row
+	 * @return area in hectare, NaN if not known
+	 */
+	public double area(int row) {
+		return area[row];
+	}
+	
+	/**
+	 * Get the perimeter
+	 * 
+	 * @param row row
+	 * @return perimeter, NaN if not known
+	 */
+	public double perimeter(int row) {
+		return perimeter[row];
+	}
+	
+	/**
+	 * Get the number of coordinates of all geometries
+	 * 
+	 * @return number of coordinates
+	 */
+	public int coordinates() {
+		return positions;
+	}
+	
+	/**
+	 * Get the number of rings of all geometries
+	 * 
+	 * @return number of rings
+	 */
+	public int rings() {
+		return rings;
+	}
+	
+	/**
+	 * Get the first ring of a row, the rings of a row are consecutive
+	 * 
+	 * @param row row, or the number of rows to get the end of the last row
+	 * @return ring
+	 */
+	public int firstRing(int row) {
+		return rowRing[row];
+	}
+	
+	/**
+	 * Get the position of the first coordinate of a ring, 
+	 * the last coordinate is the same as the first one
+	 * 
+	 * @param ring ring, or the number of rings to get the end of the last ring
+	 * @return position
+	 */
+	public int ringStart(int ring) {
+		return ringStart[ring];
+	}
+	
+	/**
+	 * Get the shell of a ring
+	 * 
+	 * @param ring ring
+	 * @return the ring itself for a shell, or the shell of a hole
+	 */
+	public int shellOf(int ring) {
+		return ringShell[ring];
+	}
+	
+	/**
+	 * Get the X coordinate of a position
+	 * 
+	 * @param pos position
+	 * @return X coordinate
+	 */
+	public double x(int pos) {
+		return xs[pos];
+	}
+	
+	/**
+	 * Get the Y coordinate of a position
+	 * 
+	 * @param pos position
+	 * @return Y coordinate
+	 */
+	public double y(int pos) {
+		return ys[pos];
+	}
+	
+	/**
+	 * Build a multipolygon from consecutive rings, holes following 
+	 * or preceding their shell
+	 * 
+	 * @param factory geometry factory
+	 * @param first first ring
+	 * @param end ring after the last ring
+	 * @param shell shell of each ring
+	 * @param ring builds a ring
+	 * @return multipolygon, empty if there are no rings
+	 */
+	static MultiPolygon polygons(GeometryFactory factory, int first, int end, 
+						IntUnaryOperator shell, IntFunction<LinearRing> ring) {
+		List<Polygon> polys = new ArrayList<>();
+		for (int s = first; s < end; s++) {
+			if (shell.applyAsInt(s) != s) {
+				continue;
+			}
+			List<LinearRing> holes = new ArrayList<>();
+			for (int h = first; h < end; h++) {
+				if (h != s && shell.applyAsInt(h) == s) {
+					holes.add(ring.apply(h));
+				}
+			}
+			polys.add(factory.createPolygon(ring.apply(s),
+								holes.toArray(new LinearRing[holes.size()])));
+		}
+		return factory.createMultiPolygon(polys.toArray(new Polygon[polys.size()]));
+	}
+	
+	/**
+	 * Build a ring
+	 * 
+	 * @param factory geometry factory
+	 * @param r ring
+	 * @return linear ring
+	 */
+	private LinearRing ring(GeometryFactory factory, int r) {
+		Coordinate[] coords = new Coordinate[ringStart[r + 1] - ringStart[r]];
+		for (int i = 0; i < coords.length; i++) {
+			coords[i] = new Coordinate(xs[ringStart[r] + i], ys[ringStart[r] + i]);
+		}
+		return factory.createLinearRing(coords);
+	}
+	
+	/**
+	 * Build the geometry of a sector
+	 * 
+	 * @param row row
+	 * @param factory geometry factory
+	 * @return multipolygon, empty if the record has no shape
+	 */
+	public MultiPolygon geometry(int row, GeometryFactory factory) {
+		return polygons(factory, rowRing[row], rowRing[row + 1], 
+								r -> ringShell[r], r -> ring(factory, r));
+	}
+	
+	/**
+	 * Estimate the heap used by the table
+	 * 
+	 * @return bytes
+	 */
+	public long memory() {
+		// codes, record numbers, first rings, area and perimeter
+		long bytes = rows * 48L + xs.length * 16L + ringStart.length * 8L;
+		for (String[] col: Arrays.asList(sectors, namesNl, namesFr)) {
+			for (String s: col) {
+				bytes += 48 + s.length() * 2;
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Constructor, loads all sectors of a shapefile
+	 * 
+	 * @param shp memory-mapped shapefile
+	 * @throws IOException 
+	 */
+	public SectorTable(MappedShapefile shp) throws IOException {
+		Projection cols = Main.COLUMNS.bind(shp);
+		int size = shp.size();
+		int[] recs = new int[size];
+		String[] sects = new String[size];
+		String[] nl = new String[size];
+		String[] fr = new String[size];
+		double[] ar = new double[size];
+		double[] per = new double[size];
+		int[] first = new int[size + 1];
+		
+		ColumnBuilder[] builders = new ColumnBuilder[] { 
+			new ColumnBuilder(cols.index(Main.COL_NIS), size),
+			new ColumnBuilder(cols.index(Main.COL_NUTS3), size),
+			new ColumnBuilder(shp.column(GEMEENTE), size),
+			new ColumnBuilder(shp.column(ARROND), size),
+			new ColumnBuilder(shp.column(PROV), size),
+			new ColumnBuilder(shp.column(REG), size),
+			new ColumnBuilder(shp.column(Main.SECTOR_2001), size),
+			new ColumnBuilder(shp.column(Main.SECTOR_1991), size),
+			new ColumnBuilder(shp.column(Main.SECTOR_1981), size) };
+		int colArea = shp.column(AREA);
+		int colPerim = shp.column(PERIM);
+		RingBuilder geoms = new RingBuilder();
+		
+		int row = 0;
+		MappedShapefile.Cursor cursor = shp.cursor();
+		while (cursor.next()) {
+			if (cursor.deleted()) {
+				continue;
+			}
+			recs[row] = cursor.record();
+			sects[row] = cursor.text(cols.index(Main.COL_SECTOR)).toString();
+			nl[row] = cursor.text(cols.index(Main.COL_NAME_NL)).toString();
+			fr[row] = cursor.text(cols.index(Main.COL_NAME_FR)).toString();
+			for (ColumnBuilder b: builders) {
+				b.add(cursor, row);
+			}
+			ar[row] = number(cursor, colArea);
+			per[row] = number(cursor, colPerim);
+			first[row] = geoms.rings;
+			geoms.add(cursor);
+			row++;
+		}
+		first[row] = geoms.rings;
+		
+		rows = row;
+		records = Arrays.copyOf(recs, rows);
+		sectors = Arrays.copyOf(sects, rows);
+		namesNl = Arrays.copyOf(nl, rows);
+		namesFr = Arrays.copyOf(fr, rows);
+		area = Arrays.copyOf(ar, rows);
+		perimeter = Arrays.copyOf(per, rows);
+		rowRing = Arrays.copyOf(first, rows + 1);
+		nis = builders[0].build(rows);
+		nuts3 = builders[1].build(rows);
+		municipality = builders[2].build(rows);
+		arrondissement = builders[3].build(rows);
+		province = builders[4].build(rows);
+		region = builders[5].build(rows);
+		sector2001 = builders[6].build(rows);
+		sector1991 = builders[7].build(rows);
+		sector1981 = builders[8].build(rows);
+		
+		// trim the coordinate arrays
+		positions = geoms.positions;
+		rings = geoms.rings;
+		xs = Arrays.copyOf(geoms.xs, positions);
+		ys = Arrays.copyOf(geoms.ys, positions);
+		ringStart = Arrays.copyOf(geoms.ringStart, rings + 1);
+		ringShell = Arrays.copyOf(geoms.ringShell, rings);
+	}
+}
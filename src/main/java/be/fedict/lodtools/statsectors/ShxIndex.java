@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Record offsets from the .SHX index file of a shapefile
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class ShxIndex {
+	private final static int HEADER = 100;
+	private final static int ENTRY = 8;
+
+	private final int[] offsets;
+	private final int[] lengths;
+
+	/**
+	 * Get the file with the same base name as the .SHP file, e.g. the .SHX
+	 *
+	 * @param shp shapefile
+	 * @param ext extension, e.g. "shx"
+	 * @return file
+	 */
+	public static File sibling(File shp, String ext) {
+		String name = shp.getName();
+		int dot = name.lastIndexOf('.');
+		String base = (dot > 0) ? name.substring(0, dot) : name;
+
+		// keep the case of the extension consistent with the .SHP file
+		boolean upper = (dot > 0) && Character.isUpperCase(name.charAt(dot + 1));
+		return new File(shp.getParentFile(),
+					base + "." + (upper ? ext.toUpperCase() : ext.toLowerCase()));
+	}
+
+	/**
+	 * Number of records in the shapefile
+	 *
+	 * @return number of records
+	 */
+	public int size() {
+		return offsets.length;
+	}
+
+	/**
+	 * Byte offset of the record header in the .SHP file
+	 *
+	 * @param rec record number, 0-based
+	 * @return offset in bytes
+	 */
+	public int offset(int rec) {
+		return offsets[rec];
+	}
+
+	/**
+	 * Length of the record content in the .SHP file, without record header
+	 *
+	 * @param rec record number, 0-based
+	 * @return length in bytes
+	 */
+	public int length(int rec) {
+		return lengths[rec];
+	}
+
+	/**
+	 * Split the records in consecutive ranges of roughly the same size
+	 * in the .SHP file.
+	 *
+	 * @param parts maximum number of ranges
+	 * @return array of start records, last element is the number of records
+	 */
+	public int[] split(int parts) {
+		int n = size();
+		parts = Math.max(1, Math.min(parts, n));
+
+		int[] starts = new int[parts + 1];
+		if (n == 0) {
+			return starts;
+		}
+		long first = offsets[0];
+		long total = (long) offsets[n - 1] + 8 + lengths[n - 1] - first;
+
+		int rec = 0;
+		for (int p = 1; p < parts; p++) {
+			long target = first + total * p / parts;
+			while (rec < n && offsets[rec] < target) {
+				rec++;
+			}
+			starts[p] = Math.max(rec, starts[p - 1]);
+		}
+		starts[parts] = n;
+		return starts;
+	}
+
+	/**
+	 * Read the .SHX file
+	 *
+	 * @param shx index file
+	 * @throws IOException
+	 */
+	public ShxIndex(File shx) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(shx, "r");
+			FileChannel ch = raf.getChannel()) {
+			ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			buf.order(ByteOrder.BIG_ENDIAN);
+
+			if (buf.limit() < HEADER || buf.getInt(0) != 9994) {
+				throw new IOException("Not a shapefile index: " + shx);
+			}
+			int n = (buf.limit() - HEADER) / ENTRY;
+			offsets = new int[n];
+			lengths = new int[n];
+
+			// offsets and lengths are expressed in 16-bit words
+			for (int i = 0, pos = HEADER; i < n; i++, pos += ENTRY) {
+				offsets[i] = buf.getInt(pos) * 2;
+				lengths[i] = buf.getInt(pos + 4) * 2;
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Bounded cache of RDF values, keyed on the raw attribute value.
+ *
+ * Used for IRIs and literals that are repeated many times,
+ * like the NUTS regions or municipalities of the sectors.
+ * The cache is thread-safe.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ * @param <V> type of RDF value
+ */
+public class ValueCache<V extends Value> {
+	private final String name;
+	private final LoadingCache<String,V> cache;
+
+	/**
+	 * Get the value for a raw attribute value, creating it when needed
+	 *
+	 * @param raw attribute value
+	 * @return RDF value or null
+	 */
+	public V get(String raw) {
+		return (raw != null) ? cache.getUnchecked(raw) : null;
+	}
+
+	/**
+	 * Get the name of the cache
+	 *
+	 * @return name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the cache statistics
+	 *
+	 * @return statistics
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	@Override
+	public String toString() {
+		CacheStats stats = cache.stats();
+		return String.format("%s cache: %d hits, %d misses, hit rate %.1f%%",
+				name, stats.hitCount(), stats.missCount(), stats.hitRate() * 100);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name name, used for reporting
+	 * @param size maximum number of values
+	 * @param factory function creating the value from the raw attribute
+	 */
+	public ValueCache(String name, int size, Function<String,V> factory) {
+		this.name = name;
+		this.cache = CacheBuilder.newBuilder()
+							.maximumSize(size)
+							.recordStats()
+							.build(CacheLoader.from(factory));
+	}
+}
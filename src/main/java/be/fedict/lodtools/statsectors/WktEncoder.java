@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Encode geometries as WKT into a reusable character buffer.
+ *
+ * Coordinates are written with a fixed maximum number of decimals,
+ * trailing zeros are removed.
+ * A negative number of decimals keeps the full precision of the doubles.
+ * When a reprojection is set, coordinates are transformed first and the WKT
+ * is prefixed with the IRI of the target CRS, as in GeoSPARQL.
+ * An encoder is not thread-safe, each thread should use its own encoder.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class WktEncoder {
+	private final static long[] POW10 = {
+		1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+		100_000_000L, 1_000_000_000L };
+
+	private final int decimals;
+	private final Reprojection proj;
+	private double[] pts = new double[0];
+	private boolean projected = false;
+	private final StringBuilder scratch = new StringBuilder(32);
+	private char[] buf = new char[4096];
+	private int len = 0;
+
+	/**
+	 * Make sure the buffer can hold extra characters
+	 *
+	 * @param extra number of characters to be added
+	 */
+	private void ensure(int extra) {
+		if (len + extra > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(len + extra, buf.length * 2));
+		}
+	}
+
+	/**
+	 * Append a character
+	 *
+	 * @param c character
+	 */
+	private void append(char c) {
+		ensure(1);
+		buf[len++] = c;
+	}
+
+	/**
+	 * Append a string
+	 *
+	 * @param s string
+	 */
+	private void append(String s) {
+		ensure(s.length());
+		s.getChars(0, s.length(), buf, len);
+		len += s.length();
+	}
+
+	/**
+	 * Append the digits of a positive long
+	 *
+	 * @param l value
+	 * @param min minimum number of digits, padded with leading zeros
+	 */
+	private void appendDigits(long l, int min) {
+		ensure(20);
+		int start = len;
+		do {
+			buf[len++] = (char) ('0' + (l % 10));
+			l /= 10;
+			min--;
+		} while (l > 0 || min > 0);
+		// digits were added in reverse order
+		for (int i = start, j = len - 1; i < j; i++, j--) {
+			char c = buf[i];
+			buf[i] = buf[j];
+			buf[j] = c;
+		}
+	}
+
+	/**
+	 * Append a coordinate value
+	 *
+	 * @param d value
+	 */
+	private void appendNumber(double d) {
+		if (decimals < 0 || Double.isNaN(d) || Double.isInfinite(d)
+				|| Math.abs(d) * POW10[decimals] >= Long.MAX_VALUE) {
+			appendFull(d);
+			return;
+		}
+		long scaled = Math.round(Math.abs(d) * POW10[decimals]);
+		if (d < 0 && scaled != 0) {
+			append('-');
+		}
+		appendDigits(scaled / POW10[decimals], 1);
+
+		long frac = scaled % POW10[decimals];
+		if (frac != 0) {
+			int digits = decimals;
+			while (frac % 10 == 0) {
+				frac /= 10;
+				digits--;
+			}
+			append('.');
+			appendDigits(frac, digits);
+		}
+	}
+
+	/**
+	 * Append a coordinate value with full precision
+	 *
+	 * @param d value
+	 */
+	private void appendFull(double d) {
+		if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+			if (d < 0) {
+				append('-');
+			}
+			appendDigits((long) Math.abs(d), 1);
+			return;
+		}
+		scratch.setLength(0);
+		scratch.append(d);
+		if (scratch.indexOf("E") > 0) {
+			// avoid scientific notation, rare for coordinates
+			scratch.setLength(0);
+			scratch.append(BigDecimal.valueOf(d).stripTrailingZeros().toPlainString());
+		}
+		ensure(scratch.length());
+		scratch.getChars(0, scratch.length(), buf, len);
+		len += scratch.length();
+	}
+
+	/**
+	 * Append a coordinate pair
+	 *
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 */
+	private void appendCoord(double x, double y) {
+		appendNumber(x);
+		append(' ');
+		appendNumber(y);
+	}
+
+	/**
+	 * Append a list of coordinates between brackets
+	 *
+	 * @param seq coordinate sequence
+	 */
+	private void appendSeq(CoordinateSequence seq) {
+		append('(');
+		for (int i = 0; i < seq.size(); i++) {
+			if (i > 0) {
+				append(", ");
+			}
+			appendCoord(seq.getX(i), seq.getY(i));
+		}
+		append(')');
+	}
+
+	/**
+	 * Append the IRI of the CRS, if any
+	 */
+	private void appendCRS() {
+		if (proj != null) {
+			append('<');
+			append(proj.getIRI());
+			append("> ");
+		}
+	}
+	
+	/**
+	 * Append the rings of a polygon between brackets
+	 *
+	 * @param p polygon
+	 */
+	private void appendPolygon(Polygon p) {
+		append('(');
+		appendSeq(p.getExteriorRing().getCoordinateSequence());
+		for (int i = 0; i < p.getNumInteriorRing(); i++) {
+			append(", ");
+			appendSeq(p.getInteriorRingN(i).getCoordinateSequence());
+		}
+		append(')');
+	}
+
+	/**
+	 * Append the text of a JTS geometry, without the geometry type
+	 *
+	 * @param g geometry
+	 */
+	private void appendText(Geometry g) {
+		if (g.isEmpty()) {
+			append("EMPTY");
+		} else if (g instanceof Point) {
+			appendSeq(((Point) g).getCoordinateSequence());
+		} else if (g instanceof LineString) {
+			appendSeq(((LineString) g).getCoordinateSequence());
+		} else if (g instanceof Polygon) {
+			appendPolygon((Polygon) g);
+		} else {
+			append('(');
+			for (int i = 0; i < g.getNumGeometries(); i++) {
+				if (i > 0) {
+					append(", ");
+				}
+				Geometry part = g.getGeometryN(i);
+				if (g instanceof MultiPolygon || g instanceof MultiLineString
+												|| g instanceof MultiPoint) {
+					appendText(part);
+				} else {
+					appendTagged(part);
+				}
+			}
+			append(')');
+		}
+	}
+
+	/**
+	 * Get the WKT type of a JTS geometry
+	 *
+	 * @param g geometry
+	 * @return type in upper case
+	 */
+	private static String tag(Geometry g) {
+		if (g instanceof MultiPolygon) {
+			return "MULTIPOLYGON";
+		}
+		if (g instanceof Polygon) {
+			return "POLYGON";
+		}
+		if (g instanceof LinearRing) {
+			return "LINEARRING";
+		}
+		if (g instanceof LineString) {
+			return "LINESTRING";
+		}
+		if (g instanceof Point) {
+			return "POINT";
+		}
+		return g.getGeometryType().toUpperCase();
+	}
+
+	/**
+	 * Append the type and the text of a JTS geometry
+	 *
+	 * @param g geometry
+	 */
+	private void appendTagged(Geometry g) {
+		append(tag(g));
+		append(' ');
+		appendText(g);
+	}
+
+	/**
+	 * Append a ring of the current record of a shapefile cursor
+	 *
+	 * @param cur cursor
+	 * @param part ring
+	 */
+	private void appendRing(MappedShapefile.Cursor cur, int part) {
+		append('(');
+		for (int i = cur.partStart(part), end = cur.partStart(part + 1); i < end; i++) {
+			if (i > cur.partStart(part)) {
+				append(", ");
+			}
+			if (projected) {
+				appendCoord(pts[i * 2], pts[i * 2 + 1]);
+			} else {
+				appendCoord(cur.x(i), cur.y(i));
+			}
+		}
+		append(')');
+	}
+
+	/**
+	 * Transform the points of the current record of a shapefile cursor
+	 *
+	 * @param cur cursor
+	 */
+	private void project(MappedShapefile.Cursor cur) {
+		int num = cur.numPoints();
+		if (pts.length < num * 2) {
+			pts = new double[Math.max(num * 2, pts.length * 2)];
+		}
+		for (int i = 0; i < num; i++) {
+			pts[i * 2] = cur.x(i);
+			pts[i * 2 + 1] = cur.y(i);
+		}
+		try {
+			proj.transform(pts, num);
+		} catch (TransformException te) {
+			throw new IllegalArgumentException("Could not transform record " 
+														+ cur.record(), te);
+		}
+	}
+
+	/**
+	 * Append a ring of a sector table
+	 *
+	 * @param table sector table
+	 * @param ring ring
+	 * @param offset first position of the sector, for the projected points
+	 */
+	private void appendRing(SectorTable table, int ring, int offset) {
+		append('(');
+		for (int i = table.ringStart(ring), end = table.ringStart(ring + 1); i < end; i++) {
+			if (i > table.ringStart(ring)) {
+				append(", ");
+			}
+			if (projected) {
+				appendCoord(pts[(i - offset) * 2], pts[(i - offset) * 2 + 1]);
+			} else {
+				appendCoord(table.x(i), table.y(i));
+			}
+		}
+		append(')');
+	}
+
+	/**
+	 * Transform the points of a sector of a sector table
+	 *
+	 * @param table sector table
+	 * @param offset first position of the sector
+	 * @param end position after the last point of the sector
+	 * @param row row
+	 */
+	private void project(SectorTable table, int offset, int end, int row) {
+		int num = end - offset;
+		if (pts.length < num * 2) {
+			pts = new double[Math.max(num * 2, pts.length * 2)];
+		}
+		for (int i = 0; i < num; i++) {
+			pts[i * 2] = table.x(offset + i);
+			pts[i * 2 + 1] = table.y(offset + i);
+		}
+		try {
+			proj.transform(pts, num);
+		} catch (TransformException te) {
+			throw new IllegalArgumentException("Could not transform record " 
+														+ table.record(row), te);
+		}
+	}
+
+	/**
+	 * Encode a JTS geometry
+	 *
+	 * @param g geometry
+	 * @return this encoder
+	 */
+	public WktEncoder encode(Geometry g) {
+		len = 0;
+		appendCRS();
+		if (proj != null) {
+			try {
+				g = proj.transform(g);
+			} catch (TransformException te) {
+				throw new IllegalArgumentException("Could not transform geometry", te);
+			}
+		}
+		appendTagged(g);
+		return this;
+	}
+
+	/**
+	 * Encode the shape of the current record of a shapefile as MultiPolygon
+	 *
+	 * @param cur cursor
+	 * @return this encoder
+	 */
+	public WktEncoder encode(MappedShapefile.Cursor cur) {
+		len = 0;
+		appendCRS();
+		if (!cur.hasShape()) {
+			append("MULTIPOLYGON EMPTY");
+			return this;
+		}
+		cur.classifyRings();
+		projected = (proj != null && !proj.isIdentity());
+		if (projected) {
+			project(cur);
+		}
+		int parts = cur.numParts();
+
+		append("MULTIPOLYGON (");
+		boolean first = true;
+		for (int s = 0; s < parts; s++) {
+			if (cur.shellOf(s) != s) {
+				continue;
+			}
+			if (!first) {
+				append(", ");
+			}
+			first = false;
+			append('(');
+			appendRing(cur, s);
+			for (int h = 0; h < parts; h++) {
+				if (h != s && cur.shellOf(h) == s) {
+					append(", ");
+					appendRing(cur, h);
+				}
+			}
+			append(')');
+		}
+		append(')');
+		return this;
+	}
+
+	/**
+	 * Encode the geometry of a sector of a sector table as MultiPolygon,
+	 * without creating a JTS geometry
+	 *
+	 * @param table sector table
+	 * @param row row
+	 * @return this encoder
+	 */
+	public WktEncoder encode(SectorTable table, int row) {
+		len = 0;
+		appendCRS();
+		int first = table.firstRing(row);
+		int end = table.firstRing(row + 1);
+		if (first == end) {
+			append("MULTIPOLYGON EMPTY");
+			return this;
+		}
+		int offset = table.ringStart(first);
+		projected = (proj != null && !proj.isIdentity());
+		if (projected) {
+			project(table, offset, table.ringStart(end), row);
+		}
+
+		append("MULTIPOLYGON (");
+		boolean next = false;
+		for (int s = first; s < end; s++) {
+			if (table.shellOf(s) != s) {
+				continue;
+			}
+			if (next) {
+				append(", ");
+			}
+			next = true;
+			append('(');
+			appendRing(table, s, offset);
+			for (int h = first; h < end; h++) {
+				if (h != s && table.shellOf(h) == s) {
+					append(", ");
+					appendRing(table, h, offset);
+				}
+			}
+			append(')');
+		}
+		append(')');
+		return this;
+	}
+
+	/**
+	 * Get the length of the encoded WKT
+	 *
+	 * @return number of characters
+	 */
+	public int length() {
+		return len;
+	}
+
+	/**
+	 * Write the encoded WKT, without copying the buffer
+	 *
+	 * @param w writer
+	 * @throws IOException
+	 */
+	public void writeTo(Writer w) throws IOException {
+		w.write(buf, 0, len);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buf, 0, len);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param decimals maximum number of decimals, negative for full precision
+	 * @param proj reprojection, or null to keep coordinates and omit the CRS
+	 */
+	public WktEncoder(int decimals, Reprojection proj) {
+		if (decimals >= POW10.length) {
+			throw new IllegalArgumentException("Too many decimals: " + decimals);
+		}
+		this.decimals = decimals;
+		this.proj = proj;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param decimals maximum number of decimals, negative for full precision
+	 */
+	public WktEncoder(int decimals) {
+		this(decimals, null);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.vocabulary.GEO;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesWriter;
+
+/**
+ * N-Triples writer that writes WKT literals directly from an encoder,
+ * without creating an intermediate string or literal.
+ *
+ * WKT only contains ASCII letters, digits, brackets, commas, dots,
+ * minus signs and spaces, and the optional CRS IRI does not contain quotes
+ * or backslashes, so no escaping is needed.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class WktNTriplesWriter extends NTriplesWriter {
+	private final static String WKT_END =
+						"\"^^<" + GEO.WKT_LITERAL.stringValue() + "> .\n";
+
+	/**
+	 * Write a triple with a WKT literal as object
+	 *
+	 * @param subj subject
+	 * @param pred predicate
+	 * @param wkt encoder holding the WKT
+	 * @throws RDFHandlerException
+	 */
+	public void handleWkt(Resource subj, IRI pred, WktEncoder wkt)
+											throws RDFHandlerException {
+		if (!writingStarted) {
+			throw new RuntimeException("Document writing has not yet been started");
+		}
+		try {
+			NTriplesUtil.append(subj, writer);
+			writer.write(' ');
+			NTriplesUtil.append(pred, writer);
+			writer.write(" \"");
+			wkt.writeTo(writer);
+			writer.write(WKT_END);
+		} catch (IOException ioe) {
+			throw new RDFHandlerException(ioe);
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param writer writer
+	 */
+	public WktNTriplesWriter(Writer writer) {
+		super(writer);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that overlapping sectors are not reported as neighbours, also when
+ * their borders only meet in vertices and collinear segments.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class AdjacencyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Write sectors to a shapefile and compute their neighbours
+	 * 
+	 * @param shapes shell of each sector, as x,y values
+	 * @return adjacency
+	 * @throws Exception 
+	 */
+	private Adjacency compute(double[]... shapes) throws Exception {
+		MappedShapefile mapped = ShapefileGenerator.write(
+							new File(folder.getRoot(), "sectors.shp"), shapes);
+		Adjacency adj = new Adjacency(new SectorTable(mapped));
+		adj.compute(2);
+		return adj;
+	}
+	
+	@Test
+	public void testSharedBorder() throws Exception {
+		Adjacency adj = compute(
+			new double[] { 0,0, 0,100, 100,100, 100,0, 0,0 },
+			new double[] { 100,0, 100,100, 200,100, 200,0, 100,0 });
+		assertEquals("Overlaps", 0, adj.overlaps());
+		assertArrayEquals("Neighbours", new int[] { 1 }, adj.neighboursOf(0));
+	}
+	
+	@Test
+	public void testJunction() throws Exception {
+		// the right sector has an extra vertex on the shared border
+		Adjacency adj = compute(
+			new double[] { 0,0, 0,100, 100,100, 100,0, 0,0 },
+			new double[] { 100,0, 100,50, 100,100, 200,100, 200,0, 100,0 });
+		assertEquals("Overlaps", 0, adj.overlaps());
+		assertArrayEquals("Neighbours", new int[] { 1 }, adj.neighboursOf(0));
+	}
+	
+	@Test
+	public void testCollinearOverlap() throws Exception {
+		// every vertex lies on the other border or outside, the top borders
+		// partly overlap and the diagonal runs through the square
+		Adjacency adj = compute(
+			new double[] { 0,0, 0,200, 200,200, 200,0, 0,0 },
+			new double[] { 0,0, -100,200, 200,200, 0,0 });
+		assertEquals("Overlaps", 1, adj.overlaps());
+		assertEquals("Neighbours", 0, adj.neighboursOf(0).length);
+	}
+	
+	@Test
+	public void testChordOverlap() throws Exception {
+		// all borders meet in shared vertices and identical segments, 
+		// but the diagonal runs through the square
+		Adjacency adj = compute(
+			new double[] { 0,0, 0,200, 200,200, 200,0, 0,0 },
+			new double[] { 0,0, -100,100, 0,200, 200,200, 0,0 });
+		assertEquals("Overlaps", 1, adj.overlaps());
+		assertEquals("Neighbours", 0, adj.neighboursOf(0).length);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Check that the multi-member gzip output can be read back by the 
+ * standard gzip decoder.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class BlockGzipOutputStreamTest {
+	/**
+	 * Create compressible test data, spanning several blocks
+	 * 
+	 * @param size number of bytes
+	 * @return data
+	 */
+	private static byte[] data(int size) {
+		Random rnd = new Random(42);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) ('a' + rnd.nextInt(8));
+		}
+		return data;
+	}
+	
+	/**
+	 * Decompress all gzip members
+	 * 
+	 * @param gz compressed bytes
+	 * @return decompressed bytes
+	 * @throws IOException 
+	 */
+	private static byte[] gunzip(byte[] gz) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] data = data(3 * 1024 * 1024 + 123);
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		try (BlockGzipOutputStream out = new BlockGzipOutputStream(gz, 2)) {
+			// arrays crossing the block boundaries
+			for (int off = 0; off < data.length; off += 100_000) {
+				out.write(data, off, Math.min(100_000, data.length - off));
+			}
+		}
+		assertArrayEquals(data, gunzip(gz.toByteArray()));
+	}
+	
+	@Test
+	public void testFlushAndSingleBytes() throws Exception {
+		byte[] data = data(1024 * 1024 + 10);
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		try (BlockGzipOutputStream out = new BlockGzipOutputStream(gz, 4)) {
+			out.write(data, 0, 1000);
+			// ends a short member
+			out.flush();
+			for (int i = 1000; i < data.length; i++) {
+				out.write(data[i]);
+			}
+		}
+		assertArrayEquals(data, gunzip(gz.toByteArray()));
+	}
+	
+	@Test
+	public void testEmpty() throws Exception {
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		new BlockGzipOutputStream(gz, 2).close();
+		assertEquals(0, gunzip(gz.toByteArray()).length);
+	}
+}
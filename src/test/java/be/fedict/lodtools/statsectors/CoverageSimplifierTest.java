@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that simplified sectors remain valid and do not overlap, for
+ * narrow sectors, holes close to their shell and T-junctions.
+ * 
+ * Each test surrounds the sectors with neighbours, so the corners are nodes
+ * and the small ring rule of the simplifier does not keep extra vertices.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class CoverageSimplifierTest {
+	private final static GeometryFactory GEOM_FAC = new GeometryFactory();
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Write sectors to a shapefile and load them in a sector table
+	 * 
+	 * @param shapes rings of each sector, as x,y values
+	 * @return sector table
+	 * @throws Exception 
+	 */
+	private SectorTable load(List<List<double[]>> shapes) throws Exception {
+		return new SectorTable(ShapefileGenerator.write(
+							new File(folder.getRoot(), "sectors.shp"), shapes));
+	}
+	
+	/**
+	 * Create a sector from rings
+	 * 
+	 * @param rings x,y values of each ring
+	 * @return sector
+	 */
+	private static List<double[]> sector(double[]... rings) {
+		return Arrays.asList(rings);
+	}
+	
+	/**
+	 * Simplify all sectors and check that they are valid and do not overlap
+	 * 
+	 * @param table sector table
+	 * @param tol tolerance
+	 * @return simplified sectors
+	 */
+	private static List<Geometry> simplify(SectorTable table, double tol) {
+		CoverageSimplifier simplifier = new CoverageSimplifier(table);
+		boolean[] keep = simplifier.simplify(tol);
+		
+		List<Geometry> geoms = new ArrayList<>();
+		double sum = 0;
+		for (int row = 0; row < simplifier.size(); row++) {
+			Geometry geom = simplifier.geometry(row, keep);
+			assertTrue("Invalid sector " + row + ": " + geom, geom.isValid());
+			geoms.add(geom);
+			sum += geom.getArea();
+		}
+		double union = GEOM_FAC.buildGeometry(geoms).union().getArea();
+		assertEquals("Overlapping sectors", union, sum, 1e-6);
+		return geoms;
+	}
+	
+	@Test
+	public void testNarrowSector() throws Exception {
+		// the middle sector is only 4 meter wide where both borders bend
+		List<List<double[]>> shapes = Arrays.asList(
+			sector(new double[] { 0,0, 0,100, 100,100, 70,50, 100,0, 0,0 }),
+			sector(new double[] { 100,0, 70,50, 100,100, 110,100, 110,70, 
+								74,50, 110,30, 110,0, 100,0 }),
+			sector(new double[] { 110,0, 110,30, 74,50, 110,70, 110,100, 
+								200,100, 200,0, 110,0 }),
+			sector(new double[] { 0,100, 0,150, 200,150, 200,100, 110,100, 
+								100,100, 0,100 }),
+			sector(new double[] { 0,-50, 0,0, 100,0, 110,0, 200,0, 200,-50, 
+								0,-50 }));
+		
+		List<Geometry> geoms = simplify(load(shapes), 35);
+		assertTrue("Narrow sector disappeared", geoms.get(1).getArea() > 0);
+	}
+	
+	@Test
+	public void testHoleNearShell() throws Exception {
+		// the hole lies in the bulge of the border with the sector above
+		List<List<double[]>> shapes = Arrays.asList(
+			sector(new double[] { 0,0, 0,100, 25,115, 50,120, 75,115, 100,100, 
+								100,0, 0,0 },
+					new double[] { 45,105, 55,105, 55,112, 45,112, 45,105 }),
+			sector(new double[] { 0,100, 0,150, 100,150, 100,100, 75,115, 
+								50,120, 25,115, 0,100 }),
+			sector(new double[] { 0,-50, 0,0, 100,0, 100,-50, 0,-50 }),
+			sector(new double[] { 0,150, 0,200, 100,200, 100,150, 0,150 }));
+		
+		List<Geometry> geoms = simplify(load(shapes), 25);
+		Polygon poly = (Polygon) geoms.get(0).getGeometryN(0);
+		assertEquals("Hole lost", 1, poly.getNumInteriorRing());
+	}
+	
+	@Test
+	public void testJunction() throws Exception {
+		// the right sector has an extra vertex on the shared border
+		List<List<double[]>> shapes = Arrays.asList(
+			sector(new double[] { 0,0, 0,100, 100,100, 100,80, 105,60, 100,40, 
+								105,20, 100,0, 0,0 }),
+			sector(new double[] { 100,0, 105,20, 100,40, 102.5,50, 105,60, 
+								100,80, 100,100, 200,100, 200,0, 100,0 }),
+			sector(new double[] { 0,100, 0,150, 200,150, 200,100, 100,100, 
+								0,100 }),
+			sector(new double[] { 0,-50, 0,0, 100,0, 200,0, 200,-50, 0,-50 }));
+		
+		SectorTable table = load(shapes);
+		assertEquals("T-junctions", 1, new CoverageSimplifier(table).junctions());
+		
+		List<Geometry> geoms = simplify(table, 10);
+		assertEquals("Border not simplified", 5, geoms.get(0).getNumPoints());
+		assertEquals("Border not simplified", 5, geoms.get(1).getNumPoints());
+	}
+}
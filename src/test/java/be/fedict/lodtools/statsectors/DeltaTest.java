@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check the selection of triples and the closure over the parent links
+ * used for the delta files.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class DeltaTest {
+	private final static String PP = "http://geovocab.org/spatial#PP";
+	private final static String NT = 
+		"<s1> <" + PP + "> <m1> .\n"
+		+ "<s1> <http://www.w3.org/2000/01/rdf-schema#label> \"Sector 1\"@nl .\n"
+		+ "<s2> <" + PP + "> <m1> .\n"
+		+ "<s3> <" + PP + "> <m2> .\n"
+		+ "<m1> <" + PP + "> <p1> .\n"
+		+ "<m2> <" + PP + "> <p1> .\n"
+		+ "<p1> <http://www.w3.org/2000/01/rdf-schema#label> \"Provincie\"@nl .\n";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Write the test triples to a file
+	 * 
+	 * @return file
+	 * @throws Exception 
+	 */
+	private File file() throws Exception {
+		File f = new File(folder.getRoot(), "sectors.nt");
+		Files.write(f.toPath(), NT.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+	
+	/**
+	 * Create a set of strings
+	 * 
+	 * @param values values
+	 * @return set
+	 */
+	private static Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+	
+	@Test
+	public void testClosure() throws Exception {
+		assertEquals(set("m1", "p1"), Delta.closure(file(), set("s1"), PP));
+		// parents already in the set are not returned
+		assertEquals(set("p1"), Delta.closure(file(), set("s1", "m1"), PP));
+		assertEquals(Collections.emptySet(), Delta.closure(file(), set("p1"), PP));
+	}
+	
+	@Test
+	public void testFilter() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long n = Delta.filter(file(), set("s1", "p1"), out);
+		assertEquals(3, n);
+		assertEquals("<s1> <" + PP + "> <m1> .\n"
+			+ "<s1> <http://www.w3.org/2000/01/rdf-schema#label> \"Sector 1\"@nl .\n"
+			+ "<p1> <http://www.w3.org/2000/01/rdf-schema#label> \"Provincie\"@nl .\n",
+			new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void testGzipWithoutExtension() throws Exception {
+		// --gzip compresses the output without adding .gz to its name
+		File f = new File(folder.getRoot(), "sectors.nt");
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(f.toPath()))) {
+			out.write(NT.getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals(set("m1", "p1"), Delta.closure(f, set("s1"), PP));
+		assertEquals(3, Delta.filter(f, set("s1", "p1"), new ByteArrayOutputStream()));
+	}
+	
+	@Test
+	public void testEmptyFile() throws Exception {
+		File f = folder.newFile("empty.nt");
+		assertEquals(0, Delta.filter(f, set("s1"), new ByteArrayOutputStream()));
+	}
+}
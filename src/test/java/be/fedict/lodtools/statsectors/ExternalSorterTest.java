@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that sorted output has no duplicates, also across temporary runs
+ * and between files with different line endings.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class ExternalSorterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Write a file
+	 * 
+	 * @param name file name
+	 * @param content content
+	 * @return file
+	 * @throws Exception 
+	 */
+	private File file(String name, String content) throws Exception {
+		File f = new File(folder.getRoot(), name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+	
+	/**
+	 * Sort files and return the result
+	 * 
+	 * @param budget memory budget in bytes
+	 * @param files input files
+	 * @return sorted content
+	 * @throws Exception 
+	 */
+	private String sort(long budget, File... files) throws Exception {
+		ExternalSorter sorter = new ExternalSorter(budget, folder.getRoot());
+		for (File f: files) {
+			sorter.add(f);
+		}
+		File fout = new File(folder.getRoot(), "sorted.nt");
+		try (FileChannel ch = FileChannel.open(fout.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			sorter.merge(ch);
+		}
+		return new String(Files.readAllBytes(fout.toPath()), StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void testDuplicatesInMemory() throws Exception {
+		File f = file("a.nt", "<c> <p> <o> .\n<a> <p> <o> .\n<c> <p> <o> .\n");
+		assertEquals("<a> <p> <o> .\n<c> <p> <o> .\n", sort(1024 * 1024, f));
+	}
+	
+	@Test
+	public void testDuplicatesAcrossRuns() throws Exception {
+		// every line is written to its own run
+		File a = file("a.nt", "<c> <p> <o> .\n<a> <p> <o> .\n<b> <p> <o> .\n");
+		File b = file("b.nt", "<b> <p> <o> .\n<c> <p> <o> .\n<d> <p> <o> .\n");
+		assertEquals("<a> <p> <o> .\n<b> <p> <o> .\n<c> <p> <o> .\n<d> <p> <o> .\n", 
+															sort(1, a, b));
+	}
+	
+	@Test
+	public void testCrlfAtBlockBoundary() throws Exception {
+		// the carriage return is the last byte of the first block
+		String prefix = "<a> <p> \"";
+		String suffix = "\" .";
+		char[] pad = new char[ExternalSorter.BUF_SIZE - 1 - prefix.length() - suffix.length()];
+		Arrays.fill(pad, 'x');
+		String line = prefix + new String(pad) + suffix;
+		
+		File crlf = file("crlf.nt", line + "\r\n<b> <p> <o> .\r\n");
+		File lf = file("lf.nt", line + "\n<b> <p> <o> .\n");
+		String expected = line + "\n<b> <p> <o> .\n";
+		assertEquals("CRLF in memory", expected, sort(16 * 1024 * 1024, crlf, lf));
+		assertEquals("CRLF across runs", expected, sort(1, crlf, lf));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that fingerprints detect changed sectors and changed output
+ * options, and survive a round trip through the index file.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class FingerprintsTest {
+	private final static double[] SQUARE = { 0,0, 0,100, 100,100, 100,0, 0,0 };
+	private final static double[] RIGHT = { 100,0, 100,100, 200,100, 200,0, 100,0 };
+	private final static double[] MOVED = { 100,0, 100,100, 250,100, 200,0, 100,0 };
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Write sectors to a shapefile in a new folder and fingerprint them
+	 * 
+	 * @param options output options
+	 * @param shapes shell of each sector, as x,y values
+	 * @return fingerprints
+	 * @throws Exception 
+	 */
+	private Fingerprints compute(String options, double[]... shapes) throws Exception {
+		MappedShapefile mapped = ShapefileGenerator.write(
+							new File(folder.newFolder(), "sectors.shp"), shapes);
+		return Fingerprints.compute(mapped, Main.COLUMNS.bind(mapped), 2, options);
+	}
+	
+	@Test
+	public void testUnchanged() throws Exception {
+		Fingerprints prev = compute("decimals=-1", SQUARE, RIGHT);
+		Fingerprints next = compute("decimals=-1", SQUARE, RIGHT);
+		assertEquals(2, next.size());
+		assertTrue(next.changedSince(prev).isEmpty());
+	}
+	
+	@Test
+	public void testChangedGeometry() throws Exception {
+		Fingerprints prev = compute("decimals=-1", SQUARE, RIGHT);
+		Fingerprints next = compute("decimals=-1", SQUARE, MOVED);
+		assertEquals(Collections.singleton("11000A01-"), next.changedSince(prev));
+		assertEquals(Collections.singleton("11000A01-"), prev.changedSince(next));
+	}
+	
+	@Test
+	public void testAddedSector() throws Exception {
+		Fingerprints prev = compute("decimals=-1", SQUARE);
+		Fingerprints next = compute("decimals=-1", SQUARE, RIGHT);
+		assertEquals(Collections.singleton("11000A01-"), next.changedSince(prev));
+		assertTrue(prev.changedSince(next).isEmpty());
+	}
+	
+	@Test
+	public void testChangedOptions() throws Exception {
+		Fingerprints prev = compute("decimals=-1", SQUARE, RIGHT);
+		Fingerprints next = compute("decimals=2", SQUARE, RIGHT);
+		assertEquals(2, next.changedSince(prev).size());
+	}
+	
+	@Test
+	public void testReadWrite() throws Exception {
+		Fingerprints prints = compute("decimals=2 wgs84=", SQUARE, RIGHT);
+		File f = Fingerprints.indexFile(new File(folder.getRoot(), "sectors.nt"));
+		prints.write(f);
+		Fingerprints read = Fingerprints.read(f);
+		assertEquals("decimals=2 wgs84=", read.getOptions());
+		assertEquals(prints.size(), read.size());
+		assertTrue(prints.changedSince(read).isEmpty());
+	}
+}
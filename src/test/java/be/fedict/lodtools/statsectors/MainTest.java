@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compare the output of the GeoTools reader with the output of the 
+ * memory-mapped reader (--mapped) on a generated shapefile with holes, 
+ * multipolygons, numeric columns and deleted records.
+ * The mapped reader only becomes the default when these tests pass.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class MainTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Generate a shapefile in the temporary folder
+	 * 
+	 * @return shapefile
+	 * @throws Exception 
+	 */
+	private File generate() throws Exception {
+		File shp = new File(folder.getRoot(), "sectors.shp");
+		new ShapefileGenerator(500, 4).write(shp);
+		return shp;
+	}
+	
+	/**
+	 * Convert a shapefile and return the bytes of the output
+	 * 
+	 * @param shp shapefile
+	 * @param name name of the output file
+	 * @param args command line options
+	 * @return content of the output file
+	 * @throws Exception 
+	 */
+	private byte[] convert(File shp, String name, String... args) throws Exception {
+		Map<String,String> opts = new HashMap<>();
+		Main.parseArgs(args, opts);
+		File fout = new File(folder.getRoot(), name);
+		Main.convert(shp, fout, opts, new Metrics());
+		return Files.readAllBytes(fout.toPath());
+	}
+	
+	@Test
+	public void testReadersSameOutput() throws Exception {
+		File shp = generate();
+		byte[] geotools = convert(shp, "geotools.nt");
+		byte[] mapped = convert(shp, "mapped.nt", "--mapped");
+		assertTrue("Empty output", geotools.length > 0);
+		assertArrayEquals("Output of GeoTools and mapped reader differs", 
+															geotools, mapped);
+	}
+	
+	@Test
+	public void testReadersSameHierarchy() throws Exception {
+		File shp = generate();
+		byte[] geotools = convert(shp, "geotools.nt", "--decimals=2", "--hierarchy");
+		byte[] mapped = convert(shp, "mapped.nt", "--mapped", "--threads=4", 
+											"--decimals=2", "--hierarchy");
+		assertArrayEquals("Output of GeoTools and mapped reader differs", 
+															geotools, mapped);
+	}
+	
+	@Test
+	public void testGeoToolsSameOutput() throws Exception {
+		File shp = generate();
+		byte[] one = convert(shp, "one.nt");
+		byte[] four = convert(shp, "four.nt", "--threads=4");
+		assertArrayEquals("Output of 1 and 4 GeoTools threads differs", one, four);
+	}
+	
+	@Test
+	public void testGeoToolsSameHierarchy() throws Exception {
+		File shp = generate();
+		byte[] one = convert(shp, "one.nt", "--hierarchy");
+		byte[] four = convert(shp, "four.nt", "--threads=4", "--hierarchy");
+		assertArrayEquals("Output of 1 and 4 GeoTools threads differs", one, four);
+	}
+	
+	@Test
+	public void testMappedSameOutput() throws Exception {
+		File shp = generate();
+		byte[] one = convert(shp, "one.nt", "--mapped");
+		byte[] four = convert(shp, "four.nt", "--mapped", "--threads=4");
+		assertArrayEquals("Output of 1 and 4 mapped threads differs", one, four);
+	}
+}
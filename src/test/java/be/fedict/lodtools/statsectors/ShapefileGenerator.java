@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generate a synthetic shapefile with statistical sectors.
+ *
+ * Sectors are squares of 100 meter on a grid, with a configurable number
+ * of vertices per side. Neighbouring sectors share their borders exactly,
+ * and blocks of sectors form municipalities, arrondissements, provinces
+ * and regions, so the file can be used for every stage of the conversion.
+ * 
+ * Every third sector has a hole, every sixth sector also has an island 
+ * inside this hole (i.e. it is a multipolygon), numeric columns have 
+ * decimals, and every tenth record is marked as deleted in the DBF.
+ * 
+ * Instead of the grid, a list of given shapes can be written, for testing
+ * specific geometries.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class ShapefileGenerator {
+	private final static int SHP_POLYGON = 5;
+	private final static double X0 = 150_000;
+	private final static double Y0 = 170_000;
+	private final static double SIZE = 100;
+	
+	/* Name, type, length and decimals of the DBF columns */
+	private final static String[] NAMES = { "Cs012011", "Nis_012011", "Sector_nl", 
+		"Sector_fr", "Gemeente", "Commune", "Arrond_nl", "Arrond_fr", "Prov_nl", 
+		"Prov_fr", "Reg_nl", "Reg_fr", "Nuts1", "Nuts2", "Nuts3_new", 
+		"Gis_Perime", "Gis_area_h" };
+	private final static char[] TYPES = { 'C', 'N', 'C', 'C', 'C', 'C', 'C', 'C', 
+		'C', 'C', 'C', 'C', 'C', 'C', 'C', 'N', 'N' };
+	private final static int[] LENGTHS = { 9, 12, 60, 60, 40, 40, 40, 40, 40, 40, 
+		40, 40, 5, 5, 5, 19, 19 };
+	private final static int[] DECIMALS = { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 
+		0, 0, 0, 8, 8 };
+	
+	private final int features;
+	private final int vertices;
+	private final int side;
+	private final List<List<double[]>> shapes;
+
+	/**
+	 * Get the coordinates of the shell of a sector, clockwise
+	 * 
+	 * @param f feature
+	 * @return x,y values
+	 */
+	private double[] shell(int f) {
+		double x0 = X0 + (f % side) * SIZE;
+		double y0 = Y0 + (f / side) * SIZE;
+		double step = SIZE / vertices;
+		double[] pts = new double[(4 * vertices + 1) * 2];
+		int p = 0;
+		// same arithmetic for shared borders, so neighbours match exactly
+		for (int i = 0; i < vertices; i++) {
+			pts[p++] = x0;
+			pts[p++] = y0 + i * step;
+		}
+		for (int i = 0; i < vertices; i++) {
+			pts[p++] = x0 + i * step;
+			pts[p++] = y0 + SIZE;
+		}
+		for (int i = vertices; i > 0; i--) {
+			pts[p++] = x0 + SIZE;
+			pts[p++] = y0 + i * step;
+		}
+		for (int i = vertices; i > 0; i--) {
+			pts[p++] = x0 + i * step;
+			pts[p++] = y0;
+		}
+		pts[p++] = x0;
+		pts[p++] = y0;
+		return pts;
+	}
+	
+	/**
+	 * Get the coordinates of a square in the middle of a sector
+	 * 
+	 * @param f feature
+	 * @param half half of the side of the square
+	 * @param clockwise true for a shell, false for a hole
+	 * @return x,y values
+	 */
+	private double[] square(int f, double half, boolean clockwise) {
+		double x0 = X0 + (f % side) * SIZE + SIZE / 2 - half;
+		double y0 = Y0 + (f / side) * SIZE + SIZE / 2 - half;
+		double x1 = x0 + 2 * half;
+		double y1 = y0 + 2 * half;
+		return clockwise 
+			? new double[] { x0, y0, x0, y1, x1, y1, x1, y0, x0, y0 }
+			: new double[] { x0, y0, x1, y0, x1, y1, x0, y1, x0, y0 };
+	}
+	
+	/**
+	 * Get the rings of a sector
+	 * 
+	 * @param f feature
+	 * @return rings
+	 */
+	private List<double[]> rings(int f) {
+		if (shapes != null) {
+			return shapes.get(f);
+		}
+		List<double[]> rings = new ArrayList<>();
+		rings.add(shell(f));
+		if (f % 3 == 0) {
+			rings.add(square(f, SIZE / 5, false));
+		}
+		if (f % 6 == 0) {
+			rings.add(square(f, SIZE / 10, true));
+		}
+		return rings;
+	}
+	
+	/**
+	 * Get a random point inside one of the sectors
+	 * 
+	 * @param rnd random generator
+	 * @return x,y values
+	 */
+	public double[] point(Random rnd) {
+		int f = rnd.nextInt(features);
+		return new double[] { X0 + (f % side + rnd.nextDouble()) * SIZE, 
+								Y0 + (f / side + rnd.nextDouble()) * SIZE };
+	}
+	
+	/**
+	 * Get the attribute values of a sector
+	 * 
+	 * @param f feature
+	 * @return values
+	 */
+	private String[] values(int f) {
+		int col = f % side;
+		int row = f / side;
+		int muni = (row / 10) * ((side + 9) / 10) + col / 10;
+		int arr = muni / 5;
+		int prov = arr / 3;
+		int reg = prov / 4;
+		String nis = String.valueOf(11000 + muni);
+		double area = SIZE * SIZE / 10_000;
+		if (f % 3 == 0) {
+			area -= Math.pow(SIZE * 2 / 5, 2) / 10_000;
+		}
+		return new String[] { 
+			nis + String.format("A%02d-", f % 100), nis + ".0", 
+			"Sector " + f, "Secteur " + f, "Gemeente " + muni, "Commune " + muni,
+			"Arrondissement " + arr, "Arrondissement " + arr, 
+			"Provincie " + prov, "Province " + prov, "Gewest " + reg, "R\u00e9gion " + reg, 
+			"BE" + (reg % 10), "BE" + (reg % 10) + (prov % 10), 
+			"BE" + (reg % 10) + (prov % 10) + (arr % 10),
+			String.format(Locale.ROOT, "%.8f", 4 * SIZE),
+			String.format(Locale.ROOT, "%.8f", area) };
+	}
+	
+	/**
+	 * Check if a record is marked as deleted in the DBF, given shapes
+	 * are never deleted
+	 * 
+	 * @param f feature
+	 * @return true if deleted
+	 */
+	private boolean deleted(int f) {
+		return shapes == null && f % 10 == 9;
+	}
+	
+	/**
+	 * Get the bounding box of a list of rings
+	 * 
+	 * @param rings rings
+	 * @return minimum x and y, maximum x and y
+	 */
+	private static double[] bounds(List<double[]> rings) {
+		double[] box = { Double.MAX_VALUE, Double.MAX_VALUE, 
+							-Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (double[] ring: rings) {
+			for (int i = 0; i < ring.length; i += 2) {
+				box[0] = Math.min(box[0], ring[i]);
+				box[1] = Math.min(box[1], ring[i + 1]);
+				box[2] = Math.max(box[2], ring[i]);
+				box[3] = Math.max(box[3], ring[i + 1]);
+			}
+		}
+		return box;
+	}
+
+	/**
+	 * Write the header of the .SHP or .SHX file
+	 * 
+	 * @param buf buffer
+	 * @param words file length in 16-bit words
+	 * @param box bounding box of all shapes
+	 */
+	private void header(ByteBuffer buf, int words, double[] box) {
+		buf.order(ByteOrder.BIG_ENDIAN);
+		buf.putInt(9994);
+		for (int i = 0; i < 5; i++) {
+			buf.putInt(0);
+		}
+		buf.putInt(words);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(1000);
+		buf.putInt(SHP_POLYGON);
+		for (double d: box) {
+			buf.putDouble(d);
+		}
+		for (int i = 0; i < 4; i++) {
+			buf.putDouble(0);
+		}
+	}
+	
+	/**
+	 * Write a buffer to a file
+	 * 
+	 * @param f file
+	 * @param buf buffer
+	 * @throws IOException 
+	 */
+	private static void write(File f, ByteBuffer buf) throws IOException {
+		((Buffer) buf).flip();
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+		}
+	}
+	
+	/**
+	 * Write the .SHP and .SHX files
+	 * 
+	 * @param shp shapefile
+	 * @throws IOException 
+	 */
+	private void writeShapes(File shp) throws IOException {
+		int len = 100;
+		List<double[]> all = new ArrayList<>();
+		for (int f = 0; f < features; f++) {
+			int points = 0;
+			List<double[]> rings = rings(f);
+			for (double[] ring: rings) {
+				points += ring.length / 2;
+			}
+			len += 8 + 44 + rings.size() * 4 + points * 16;
+			all.addAll(rings);
+		}
+		
+		ByteBuffer shpBuf = ByteBuffer.allocate(len);
+		ByteBuffer shxBuf = ByteBuffer.allocate(100 + features * 8);
+		double[] box = bounds(all);
+		header(shpBuf, len / 2, box);
+		header(shxBuf, (100 + features * 8) / 2, box);
+		
+		for (int f = 0; f < features; f++) {
+			List<double[]> rings = rings(f);
+			int points = 0;
+			for (double[] ring: rings) {
+				points += ring.length / 2;
+			}
+			int content = 44 + rings.size() * 4 + points * 16;
+			double[] bbox = bounds(rings);
+			
+			shxBuf.order(ByteOrder.BIG_ENDIAN);
+			shxBuf.putInt(shpBuf.position() / 2);
+			shxBuf.putInt(content / 2);
+			
+			shpBuf.order(ByteOrder.BIG_ENDIAN);
+			shpBuf.putInt(f + 1);
+			shpBuf.putInt(content / 2);
+			shpBuf.order(ByteOrder.LITTLE_ENDIAN);
+			shpBuf.putInt(SHP_POLYGON);
+			for (double d: bbox) {
+				shpBuf.putDouble(d);
+			}
+			shpBuf.putInt(rings.size());
+			shpBuf.putInt(points);
+			int start = 0;
+			for (double[] ring: rings) {
+				shpBuf.putInt(start);
+				start += ring.length / 2;
+			}
+			for (double[] ring: rings) {
+				for (double d: ring) {
+					shpBuf.putDouble(d);
+				}
+			}
+		}
+		write(shp, shpBuf);
+		write(ShxIndex.sibling(shp, "shx"), shxBuf);
+	}
+	
+	/**
+	 * Write the .DBF file
+	 * 
+	 * @param shp shapefile
+	 * @throws IOException 
+	 */
+	private void writeAttributes(File shp) throws IOException {
+		int headerLen = 32 + NAMES.length * 32 + 1;
+		int recordLen = 1;
+		for (int l: LENGTHS) {
+			recordLen += l;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(headerLen + features * recordLen + 1)
+									.order(ByteOrder.LITTLE_ENDIAN);
+		buf.put((byte) 3).put((byte) 116).put((byte) 1).put((byte) 1);
+		buf.putInt(features);
+		buf.putShort((short) headerLen);
+		buf.putShort((short) recordLen);
+		((Buffer) buf).position(32);
+		for (int i = 0; i < NAMES.length; i++) {
+			byte[] name = NAMES[i].getBytes(StandardCharsets.US_ASCII);
+			int start = buf.position();
+			buf.put(name);
+			((Buffer) buf).position(start + 11);
+			buf.put((byte) TYPES[i]);
+			((Buffer) buf).position(start + 16);
+			buf.put((byte) LENGTHS[i]).put((byte) DECIMALS[i]);
+			((Buffer) buf).position(start + 32);
+		}
+		buf.put((byte) 0x0D);
+		
+		for (int f = 0; f < features; f++) {
+			String[] values = values(f);
+			buf.put((byte) (deleted(f) ? '*' : ' '));
+			for (int i = 0; i < NAMES.length; i++) {
+				byte[] val = values[i].getBytes(StandardCharsets.UTF_8);
+				int pad = LENGTHS[i] - val.length;
+				// numbers are right-aligned, text is left-aligned
+				if (TYPES[i] == 'N') {
+					for (int p = 0; p < pad; p++) {
+						buf.put((byte) ' ');
+					}
+				}
+				buf.put(val);
+				if (TYPES[i] != 'N') {
+					for (int p = 0; p < pad; p++) {
+						buf.put((byte) ' ');
+					}
+				}
+			}
+		}
+		buf.put((byte) 0x1A);
+		write(ShxIndex.sibling(shp, "dbf"), buf);
+	}
+	
+	/**
+	 * Write the shapefile (.SHP, .SHX and .DBF)
+	 * 
+	 * @param shp shapefile
+	 * @throws IOException 
+	 */
+	public void write(File shp) throws IOException {
+		writeShapes(shp);
+		writeAttributes(shp);
+	}
+	
+	/**
+	 * Write given shapes to a shapefile, and open it with the mapped reader
+	 * 
+	 * @param shp shapefile
+	 * @param shapes rings of each sector, shells clockwise and holes 
+	 * counter-clockwise, as x,y values
+	 * @return memory-mapped shapefile
+	 * @throws IOException 
+	 */
+	public static MappedShapefile write(File shp, List<List<double[]>> shapes) 
+														throws IOException {
+		new ShapefileGenerator(shapes).write(shp);
+		return new MappedShapefile(shp, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Write sectors without holes to a shapefile, and open it with the 
+	 * mapped reader
+	 * 
+	 * @param shp shapefile
+	 * @param shells shell of each sector, clockwise, as x,y values
+	 * @return memory-mapped shapefile
+	 * @throws IOException 
+	 */
+	public static MappedShapefile write(File shp, double[]... shells) 
+														throws IOException {
+		List<List<double[]>> shapes = new ArrayList<>();
+		for (double[] shell: shells) {
+			shapes.add(Collections.singletonList(shell));
+		}
+		return write(shp, shapes);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param features number of sectors
+	 * @param vertices number of vertices per side of a sector
+	 */
+	public ShapefileGenerator(int features, int vertices) {
+		this.features = features;
+		this.vertices = vertices;
+		this.side = (int) Math.ceil(Math.sqrt(features));
+		this.shapes = null;
+	}
+	
+	/**
+	 * Constructor, using given shapes instead of the grid
+	 * 
+	 * @param shapes rings of each sector, shells clockwise and holes 
+	 * counter-clockwise, as x,y values
+	 */
+	public ShapefileGenerator(List<List<double[]>> shapes) {
+		this.features = shapes.size();
+		this.vertices = 0;
+		this.side = (int) Math.ceil(Math.sqrt(features));
+		this.shapes = shapes;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.statsectors;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Check the rounding of coordinates and the removal of trailing zeros
+ * by the WKT encoder.
+ *
+ * @author Bart Hanssens <bart.hanssens@fedict.be>
+ */
+public class WktEncoderTest {
+	private final static GeometryFactory GEOM_FAC = new GeometryFactory();
+	
+	/**
+	 * Encode a point
+	 * 
+	 * @param decimals maximum number of decimals
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return WKT
+	 */
+	private static String point(int decimals, double x, double y) {
+		return new WktEncoder(decimals)
+				.encode(GEOM_FAC.createPoint(new Coordinate(x, y))).toString();
+	}
+	
+	@Test
+	public void testRounding() {
+		// 0.125 is exact in binary, so it is really halfway
+		assertEquals("POINT (0.13 -0.13)", point(2, 0.125, -0.125));
+		assertEquals("POINT (2 -2)", point(0, 1.5, -1.5));
+		assertEquals("POINT (150000.1 170000.99)", point(2, 150000.1, 170000.994));
+	}
+	
+	@Test
+	public void testTrailingZeros() {
+		assertEquals("POINT (100 0.5)", point(3, 100.0001, 0.5));
+		assertEquals("POINT (1.05 10)", point(9, 1.05, 10));
+	}
+	
+	@Test
+	public void testNegativeZero() {
+		// rounded to zero, so no minus sign
+		assertEquals("POINT (0 0)", point(2, -0.001, -0.0));
+	}
+	
+	@Test
+	public void testMaximumDecimals() {
+		assertEquals("POINT (12.123456789 0.000000001)", 
+									point(9, 12.123456789, 0.000000001));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyDecimals() {
+		new WktEncoder(10);
+	}
+	
+	@Test
+	public void testFullPrecision() {
+		assertEquals("POINT (0.1 -150000)", point(-1, 0.1, -150000));
+		// no scientific notation
+		assertEquals("POINT (0.0000001 100000000000000000000)", point(-1, 1e-7, 1e20));
+	}
+	
+	@Test
+	public void testOutOfRange() {
+		// scaled values would overflow a long, so full precision is used
+		assertEquals("POINT (100000000000 1)", point(9, 1e11, 1));
+	}
+	
+	@Test
+	public void testPolygon() {
+		String wkt = new WktEncoder(1).encode(GEOM_FAC.createPolygon(
+			GEOM_FAC.createLinearRing(new Coordinate[] {
+				new Coordinate(0, 0), new Coordinate(0, 1.25), 
+				new Coordinate(1, 1), new Coordinate(0, 0) }), null)).toString();
+		assertEquals("POLYGON ((0 0, 0 1.3, 1 1, 0 0))", wkt);
+	}
+}